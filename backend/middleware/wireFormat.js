@@ -0,0 +1,57 @@
+const express = require('express');
+const cbor = require('../utils/cbor');
+
+/**
+ * Wire format negotiation
+ * Devices may send request bodies as CBOR (optionally gzip/deflate compressed)
+ * and ask for CBOR responses via Accept. Everyone else keeps plain JSON.
+ *
+ *   Content-Type: application/vnd.emilock.v1+cbor   (versioned device protocol)
+ *   Content-Type: application/cbor                  (generic CBOR)
+ *   Content-Encoding: gzip | deflate                (inflated by express.raw)
+ *
+ * An unknown protocol version is answered with 415 so the device falls back to JSON.
+ */
+const CBOR_MEDIA_TYPE = 'application/vnd.emilock.v1+cbor';
+const CBOR_TYPES = [CBOR_MEDIA_TYPE, 'application/cbor'];
+
+const isCborType = (type) => /^application\/(cbor|vnd\.emilock\.v\d+\+cbor)\b/i.test(type || '');
+
+const rawCbor = express.raw({
+    type: (req) => isCborType(req.headers['content-type']),
+    limit: '1mb'
+});
+
+// Decode CBOR request bodies into req.body, exactly like express.json() does for JSON
+const parseBody = [rawCbor, (req, res, next) => {
+    const type = req.headers['content-type'];
+    if (!isCborType(type)) return next();
+
+    if (!CBOR_TYPES.some(t => type.toLowerCase().startsWith(t))) {
+        return res.status(415).json({ message: `Unsupported wire format: ${type}` });
+    }
+    try {
+        req.body = Buffer.isBuffer(req.body) && req.body.length ? cbor.decode(req.body) : {};
+        next();
+    } catch (err) {
+        res.status(400).json({ message: `Invalid CBOR body: ${err.message}` });
+    }
+}];
+
+// Answer res.json() with CBOR when the client prefers it
+const negotiate = (req, res, next) => {
+    const sendJson = res.json.bind(res);
+
+    res.json = (body) => {
+        res.vary('Accept');
+        if (req.accepts(['application/json', CBOR_MEDIA_TYPE]) === CBOR_MEDIA_TYPE) {
+            res.type(CBOR_MEDIA_TYPE);
+            return res.send(cbor.encode(body));
+        }
+        return sendJson(body);
+    };
+
+    next();
+};
+
+module.exports = { parseBody, negotiate, CBOR_MEDIA_TYPE };
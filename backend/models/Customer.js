@@ -101,6 +101,8 @@ const CustomerSchema = new mongoose.Schema({
             deviceName: { type: String },
             freeMemory: { type: Number }
         },
+        // Latest lock/unlock step timings reported by the device (transition_timing report)
+        lockTiming: { type: mongoose.Schema.Types.Mixed },
         // Detailed Onboarding Steps
         steps: {
             qrScanned: { type: Boolean, default: false }, // Inferred or Manual
@@ -122,6 +124,9 @@ const CustomerSchema = new mongoose.Schema({
     supportPhone: { type: String, default: "8876655444" },
     wallpaperUrl: { type: String }, // Custom wallpaper URL
 
+    // Ids of device reports already applied (newest last, capped) - a resent report is skipped
+    processedReportIds: [{ type: String }],
+
     // Security Events tracking
     securityEvents: [{
         event: { type: String }, // e.g. "SAFE_MODE_ATTEMPT", "SIM_CHANGE", "ROOT_DETECTED", "TAMPERING"
@@ -167,4 +172,28 @@ const CustomerSchema = new mongoose.Schema({
     }
 }, { timestamps: true });
 
+// Push lock/unlock decisions to connected devices as soon as they are stored
+const lockEvents = require('../utils/lockEvents');
+
+CustomerSchema.pre('save', function () {
+    this.$locals.lockChanged = this.isNew || this.isModified('isLocked');
+});
+
+CustomerSchema.post('save', function (doc) {
+    if (doc.$locals.lockChanged) {
+        lockEvents.publishState(doc);
+    }
+});
+
+CustomerSchema.post('findOneAndUpdate', function (doc) {
+    const update = this.getUpdate() || {};
+    const isLocked = update.$set && 'isLocked' in update.$set ? update.$set.isLocked : update.isLocked;
+    // Read the value from the update itself - callers don't always pass { new: true }
+    if (doc && isLocked !== undefined) {
+        // Timestamps put the new updatedAt into the update - it versions the pushed lease
+        const updatedAt = (update.$set && update.$set.updatedAt) || update.updatedAt;
+        lockEvents.publishState({ id: doc.id, isLocked, updatedAt });
+    }
+});
+
 module.exports = mongoose.model('Customer', CustomerSchema);
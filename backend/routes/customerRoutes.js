@@ -5,6 +5,9 @@ const Device = require('../models/Device');
 const logger = require('../config/logger');
 const auth = require('../middleware/auth');
 const checkDeviceLimit = require('../middleware/checkDeviceLimit');
+const lockEvents = require('../utils/lockEvents');
+const deviceReports = require('../utils/deviceReports');
+const lockLease = require('../utils/lockLease');
 
 // Get all customers (filtered by dealer)
 router.get('/', auth, async (req, res) => {
@@ -650,51 +653,12 @@ router.post('/:id/command', async (req, res) => {
 // SIM Change Report - Device reports SIM card change
 router.post('/:id/sim-change', async (req, res) => {
     try {
-        const { originalIccid, newIccid, newOperator, timestamp } = req.body;
+        const found = await deviceReports.recordSimChange(req.params.id, req.body, req.ip);
 
-        console.log(`🚨 SIM CHANGE REPORTED for ${req.params.id}`);
-        console.log(`   Original ICCID: ${originalIccid}`);
-        console.log(`   New ICCID: ${newIccid}`);
-        console.log(`   New Operator: ${newOperator}`);
-
-        const updateData = {
-            $push: {
-                simChangeHistory: {
-                    serialNumber: newIccid,
-                    operator: newOperator,
-                    detectedAt: new Date(timestamp || Date.now()),
-                    ipAddress: req.ip
-                },
-                lockHistory: {
-                    id: Date.now().toString(),
-                    action: 'locked',
-                    reason: `SIM change detected: ${newOperator || 'Unknown'}`,
-                    timestamp: new Date().toISOString()
-                }
-            },
-            $set: {
-                isLocked: true, // Auto-lock on SIM change
-                'deviceStatus.status': 'warning',
-                'deviceStatus.errorMessage': `Unauthorized SIM change detected at ${new Date().toISOString()}`,
-                'simDetails.serialNumber': newIccid,
-                'simDetails.operator': newOperator,
-                'simDetails.isAuthorized': false,
-                'simDetails.lastUpdated': new Date()
-            }
-        };
-
-        const customer = await Customer.findOneAndUpdate(
-            { id: req.params.id },
-            updateData,
-            { new: true }
-        );
-
-        if (!customer) {
+        if (!found) {
             return res.status(404).json({ message: 'Customer not found' });
         }
 
-        console.log(`🔒 Device auto-locked due to SIM change`);
-
         res.json({
             success: true,
             message: 'SIM change recorded and device locked',
@@ -710,54 +674,16 @@ router.post('/:id/sim-change', async (req, res) => {
 // Security Event Report - Device reports security events
 router.post('/:id/security-event', async (req, res) => {
     try {
-        const { event, timestamp, action, details } = req.body;
+        const found = await deviceReports.recordSecurityEvent(req.params.id, req.body, req.ip);
 
-        console.log(`🚨 SECURITY EVENT for ${req.params.id}: ${event}`);
-
-        const eventData = {
-            event,
-            timestamp: new Date(timestamp || Date.now()),
-            action,
-            details,
-            ipAddress: req.ip
-        };
-
-        const updateData = {
-            $push: {
-                securityEvents: eventData
-            }
-        };
-
-        // Auto-lock for certain events
-        if (['SAFE_MODE_ATTEMPT', 'ROOT_DETECTED', 'TAMPERING'].includes(event)) {
-            updateData.$set = {
-                isLocked: true,
-                'deviceStatus.status': 'warning',
-                'deviceStatus.errorMessage': `Security event: ${event}`
-            };
-            updateData.$push.lockHistory = {
-                id: Date.now().toString(),
-                action: 'locked',
-                reason: `Security event: ${event}`,
-                timestamp: new Date().toISOString()
-            };
-            console.log(`🔒 Device auto-locked due to security event`);
-        }
-
-        const customer = await Customer.findOneAndUpdate(
-            { id: req.params.id },
-            updateData,
-            { new: true }
-        );
-
-        if (!customer) {
+        if (!found) {
             return res.status(404).json({ message: 'Customer not found' });
         }
 
         res.json({
             success: true,
             message: 'Security event recorded',
-            event
+            event: req.body.event
         });
 
     } catch (err) {
@@ -766,6 +692,121 @@ router.post('/:id/security-event', async (req, res) => {
     }
 });
 
+// Optional fleet-wide heartbeat interval hint (seconds) - devices adapt on their own when unset
+const POLL_INTERVAL_HINT_SEC = parseInt(process.env.HEARTBEAT_POLL_INTERVAL_SEC, 10) || 0;
+// Optional failover endpoints pushed to devices (comma-separated base URLs)
+const FAILOVER_ENDPOINTS = (process.env.SERVER_ENDPOINTS || '')
+    .split(',')
+    .map(url => url.trim())
+    .filter(Boolean);
+
+// Next moment the lock state is expected to change: the earliest unpaid EMI due date
+function findNextDueAt(customer) {
+    let nextDue = customer.nextPaymentDate ? new Date(customer.nextPaymentDate).getTime() : 0;
+    for (const emi of customer.emiSchedule || []) {
+        if (!emi.dueDate || emi.status === 'PAID') continue;
+        const due = new Date(emi.dueDate).getTime();
+        if (!nextDue || due < nextDue) nextDue = due;
+    }
+    return nextDue;
+}
+
+// Amount the lock screen asks for: every unpaid instalment already due, else the regular EMI
+function findAmountDue(customer) {
+    const now = Date.now();
+    let due = 0;
+    for (const emi of customer.emiSchedule || []) {
+        if (emi.status === 'PAID' || !emi.dueDate) continue;
+        if (new Date(emi.dueDate).getTime() <= now) due += emi.amount || 0;
+    }
+    return Math.round(due || customer.emiAmount || 0);
+}
+
+// Compact lock status - the only fields the device heartbeat needs
+async function findLockStatus(customerId) {
+    const customer = await Customer.findOne({ id: customerId })
+        .select('isLocked lockMessage supportPhone financeName emiAmount updatedAt nextPaymentDate emiSchedule.dueDate emiSchedule.status emiSchedule.amount')
+        .lean();
+
+    if (!customer) return null;
+
+    const status = {
+        isLocked: !!customer.isLocked,
+        lockMessage: customer.lockMessage || null,
+        supportPhone: customer.supportPhone || null,
+        v: customer.updatedAt ? new Date(customer.updatedAt).getTime() : 0,
+        nextDueAt: findNextDueAt(customer),
+        // Lock wallpaper inputs - the device renders the image itself
+        amountDue: findAmountDue(customer),
+        lender: customer.financeName || null
+    };
+    if (POLL_INTERVAL_HINT_SEC) {
+        status.pollIntervalSec = POLL_INTERVAL_HINT_SEC;
+    }
+    if (FAILOVER_ENDPOINTS.length) {
+        status.endpoints = FAILOVER_ENDPOINTS;
+    }
+    // Signed lease the device keeps enforcing while offline
+    const lease = lockLease.issueLease(customerId, status.isLocked, status.v);
+    if (lease) {
+        Object.assign(status, lease);
+    }
+    return status;
+}
+
+// Express adds a weak ETag, so unchanged polls are answered with 304
+router.get('/:id/lock-status', async (req, res) => {
+    try {
+        const status = await findLockStatus(req.params.id);
+
+        if (!status) {
+            return res.status(404).json({ message: 'Customer not found' });
+        }
+
+        res.json(status);
+    } catch (err) {
+        res.status(500).json({ message: err.message });
+    }
+});
+
+// Heartbeat with piggybacked reports - applies queued device reports and returns
+// the compact lock status plus the ids the device may now delete from its outbox
+router.post('/:id/sync', async (req, res) => {
+    try {
+        const reports = Array.isArray(req.body.reports) ? req.body.reports : [];
+        const acks = await deviceReports.applyReports(req.params.id, reports, req.ip);
+
+        // Read status after applying, so auto-locks from these reports are already included
+        const status = await findLockStatus(req.params.id);
+
+        if (!status) {
+            return res.status(404).json({ message: 'Customer not found' });
+        }
+
+        res.json({ ...status, acks });
+    } catch (err) {
+        console.error('Sync error:', err);
+        res.status(500).json({ message: err.message });
+    }
+});
+
+// Lock event stream - Device keeps this open and receives lock/unlock pushes (SSE)
+router.get('/:id/events', async (req, res) => {
+    try {
+        const customer = await Customer.findOne({ id: req.params.id }).select('id isLocked updatedAt').lean();
+
+        if (!customer) {
+            return res.status(404).json({ message: 'Customer not found' });
+        }
+
+        lockEvents.subscribe(customer.id, res, lockEvents.stateFrame(customer));
+    } catch (err) {
+        if (!res.headersSent) {
+            res.status(500).json({ message: err.message });
+        }
+    }
+});
+
 // Get offline tokens for a device
 router.get('/:id/tokens', async (req, res) => {
     try {
@@ -3,6 +3,7 @@ const router = express.Router();
 const path = require('path');
 const fs = require('fs');
 const { getApkChecksum } = require('../utils/checksum');
+const lockLease = require('../utils/lockLease');
 
 // GET /api/provisioning/payload/:customerId
 router.get('/payload/:customerId', (req, res) => {
@@ -61,6 +62,11 @@ router.get('/payload/:customerId', (req, res) => {
             }
         };
 
+        // Trust anchor for signed lock leases - the device never accepts a key over the network
+        if (lockLease.isEnabled()) {
+            payload["android.app.extra.PROVISIONING_ADMIN_EXTRAS_BUNDLE"].leasePublicKey = lockLease.getPublicKey();
+        }
+
         res.json(payload);
 
     } catch (err) {
@@ -0,0 +1,167 @@
+/**
+ * Mock Status Server
+ * Local stand-in for the customer status endpoint used by the device heartbeat.
+ * Serves ETag-validated responses so conditional requests (If-None-Match -> 304)
+ * can be tested without MongoDB or the full backend.
+ *
+ * Usage:
+ *   node backend/scripts/mock-status-server.js [port]
+ *
+ *   GET  /api/customers/:id          -> customer JSON (200) or 304 when unchanged
+ *   GET  /api/customers/:id/lock-status -> compact status JSON (200) or 304
+ *   POST /api/customers/:id/sync     -> acks every queued report, returns status + acks
+ *   POST /mock/:id/lock              -> set isLocked = true
+ *   POST /mock/:id/unlock            -> set isLocked = false
+ *   GET  /mock/stats                 -> request / byte counters
+ *
+ * Status and sync speak CBOR (application/vnd.emilock.v1+cbor) when the device asks for it,
+ * and accept gzip-compressed request bodies, like the real backend.
+ *
+ * Point the device at it with setConfig("http://<host-ip>:<port>", "<id>").
+ */
+const http = require('http');
+const crypto = require('crypto');
+const zlib = require('zlib');
+const cbor = require('../utils/cbor');
+
+const PORT = parseInt(process.argv[2], 10) || 5055;
+
+// id -> customer document
+const customers = new Map();
+const stats = { requests: 0, ok: 0, notModified: 0, bodyBytes: 0, syncs: 0, reports: 0 };
+
+function getCustomer(id) {
+    if (!customers.has(id)) {
+        customers.set(id, {
+            id,
+            name: `Mock Customer ${id}`,
+            phoneNo: '9000000000',
+            isLocked: false,
+            lockMessage: 'This device has been locked due to payment overdue.',
+            supportPhone: '8876655444',
+            emiAmount: 2500,
+            amountDue: 2500,
+            lender: 'Secure Finance',
+            nextDueAt: Date.now() + 3 * 24 * 60 * 60 * 1000,
+            totalEmis: 12,
+            paidEmis: 3,
+            updatedAt: new Date().toISOString()
+        });
+    }
+    return customers.get(id);
+}
+
+function etagFor(body) {
+    return `"${crypto.createHash('sha1').update(body).digest('base64').substring(0, 27)}"`;
+}
+
+const CBOR_TYPE = 'application/vnd.emilock.v1+cbor';
+
+// Encode a status document in the format the device prefers
+function encodeFor(req, doc) {
+    if ((req.headers.accept || '').includes(CBOR_TYPE)) {
+        return { body: cbor.encode(doc), type: CBOR_TYPE };
+    }
+    return { body: JSON.stringify(doc), type: 'application/json; charset=utf-8' };
+}
+
+function send(res, status, body, headers = {}) {
+    res.writeHead(status, headers);
+    res.end(body);
+}
+
+const server = http.createServer((req, res) => {
+    const url = new URL(req.url, `http://${req.headers.host}`);
+    const parts = url.pathname.split('/').filter(Boolean);
+
+    // GET /api/customers/:id and /api/customers/:id/lock-status
+    const isStatusPath = parts.length === 4 && parts[3] === 'lock-status';
+    if (req.method === 'GET' && (parts.length === 3 || isStatusPath) && parts[0] === 'api' && parts[1] === 'customers') {
+        stats.requests++;
+        const customer = getCustomer(parts[2]);
+        const { body, type } = encodeFor(req, isStatusPath ? {
+            isLocked: customer.isLocked,
+            lockMessage: customer.lockMessage,
+            supportPhone: customer.supportPhone,
+            v: Date.parse(customer.updatedAt),
+            nextDueAt: customer.nextDueAt,
+            amountDue: customer.amountDue,
+            lender: customer.lender
+        } : customer);
+        const etag = etagFor(body);
+
+        if (req.headers['if-none-match'] === etag) {
+            stats.notModified++;
+            console.log(`304 ${url.pathname}`);
+            return send(res, 304, undefined, { ETag: etag });
+        }
+
+        stats.ok++;
+        stats.bodyBytes += Buffer.byteLength(body);
+        console.log(`200 ${url.pathname} (${Buffer.byteLength(body)} bytes)`);
+        return send(res, 200, body, {
+            'Content-Type': type,
+            Vary: 'Accept',
+            ETag: etag
+        });
+    }
+
+    // POST /api/customers/:id/sync - piggybacked reports
+    if (req.method === 'POST' && parts.length === 4 && parts[0] === 'api' && parts[1] === 'customers' && parts[3] === 'sync') {
+        const chunks = [];
+        req.on('data', chunk => { chunks.push(chunk); });
+        req.on('end', () => {
+            let reports = [];
+            try {
+                let raw = Buffer.concat(chunks);
+                if (req.headers['content-encoding'] === 'gzip') raw = zlib.gunzipSync(raw);
+                const isCbor = (req.headers['content-type'] || '').startsWith(CBOR_TYPE);
+                console.log(`📦 sync body ${raw.length} bytes (${isCbor ? 'cbor' : 'json'}, ${req.headers['content-encoding'] || 'identity'})`);
+                const doc = raw.length ? (isCbor ? cbor.decode(raw) : JSON.parse(raw)) : {};
+                reports = doc.reports || [];
+            } catch (e) {
+                return send(res, 400, JSON.stringify({ message: 'Bad body' }), { 'Content-Type': 'application/json' });
+            }
+            const customer = getCustomer(parts[2]);
+            const acks = reports.filter(r => r && r.id).map(r => {
+                console.log(`📨 ${parts[2]} report ${r.type} (${r.id})`);
+                return r.id;
+            });
+            stats.syncs++;
+            stats.reports += acks.length;
+            const { body, type } = encodeFor(req, {
+                isLocked: customer.isLocked,
+                lockMessage: customer.lockMessage,
+                supportPhone: customer.supportPhone,
+                v: Date.parse(customer.updatedAt),
+                nextDueAt: customer.nextDueAt,
+                amountDue: customer.amountDue,
+                lender: customer.lender,
+                acks
+            });
+            send(res, 200, body, { 'Content-Type': type, Vary: 'Accept' });
+        });
+        return;
+    }
+
+    // POST /mock/:id/lock | /mock/:id/unlock
+    if (req.method === 'POST' && parts.length === 3 && parts[0] === 'mock') {
+        const customer = getCustomer(parts[1]);
+        if (parts[2] === 'lock' || parts[2] === 'unlock') {
+            customer.isLocked = parts[2] === 'lock';
+            customer.updatedAt = new Date().toISOString();
+            console.log(`🔁 ${parts[1]} -> ${customer.isLocked ? 'LOCKED' : 'UNLOCKED'}`);
+            return send(res, 200, JSON.stringify(customer), { 'Content-Type': 'application/json' });
+        }
+    }
+
+    if (req.method === 'GET' && url.pathname === '/mock/stats') {
+        return send(res, 200, JSON.stringify(stats), { 'Content-Type': 'application/json' });
+    }
+
+    send(res, 404, JSON.stringify({ message: 'Not found' }), { 'Content-Type': 'application/json' });
+});
+
+server.listen(PORT, '0.0.0.0', () => {
+    console.log(`🧪 Mock status server listening on :${PORT}`);
+});
@@ -0,0 +1,84 @@
+/**
+ * Wire Format Benchmark
+ * Compares encoded size and encode/decode time of the device messages in
+ * JSON, CBOR, and both gzip-compressed.
+ *
+ * Usage:
+ *   node backend/scripts/wire-benchmark.js [iterations]
+ */
+const zlib = require('zlib');
+const cbor = require('../utils/cbor');
+
+const ITERATIONS = parseInt(process.argv[2], 10) || 20000;
+
+const now = Date.now();
+const messages = {
+    heartbeat: {
+        isLocked: true,
+        lockMessage: 'This device has been locked due to payment overdue.',
+        supportPhone: '8876655444',
+        v: now,
+        nextDueAt: now + 3 * 86400000
+    },
+    register: {
+        deviceId: '356938035643809',
+        imei: '356938035643809',
+        brand: 'samsung',
+        model: 'SM-A145F',
+        androidVersion: 34,
+        androidId: '9774d56d682e549c',
+        status: 'ADMIN_INSTALLED',
+        customerId: 'CUST-1700000000000',
+        simOperator: 'Jio 4G',
+        simIccid: '8991101200003204510',
+        batteryLevel: 87,
+        isCharging: false,
+        location: { lat: 12.971599, lng: 77.594566, accuracy: 14.5 }
+    },
+    report: {
+        reports: Array.from({ length: 5 }, (_, i) => ({
+            id: `5f2b6c1e-8d7a-4c3b-9e1f-0a2b3c4d5e6${i}`,
+            type: i % 2 ? 'security_event' : 'sim_change',
+            data: i % 2
+                ? { event: 'SAFE_MODE_ATTEMPT', timestamp: now, action: 'LOCKED' }
+                : { originalIccid: '8991101200003204510', newIccid: '8991000900811234567', newOperator: 'Airtel', timestamp: now },
+            timestamp: now
+        }))
+    },
+    ack: {
+        isLocked: false,
+        lockMessage: null,
+        supportPhone: '8876655444',
+        v: now,
+        nextDueAt: 0,
+        acks: Array.from({ length: 5 }, (_, i) => `5f2b6c1e-8d7a-4c3b-9e1f-0a2b3c4d5e6${i}`)
+    }
+};
+
+function time(fn) {
+    for (let i = 0; i < 1000; i++) fn(); // Warm up
+    const start = process.hrtime.bigint();
+    for (let i = 0; i < ITERATIONS; i++) fn();
+    return Number(process.hrtime.bigint() - start) / ITERATIONS / 1000; // µs per op
+}
+
+const rows = [];
+for (const [name, msg] of Object.entries(messages)) {
+    const json = Buffer.from(JSON.stringify(msg));
+    const bin = cbor.encode(msg);
+
+    rows.push({
+        message: name,
+        jsonBytes: json.length,
+        cborBytes: bin.length,
+        jsonGzBytes: zlib.gzipSync(json).length,
+        cborGzBytes: zlib.gzipSync(bin).length,
+        jsonEncodeUs: time(() => JSON.stringify(msg)).toFixed(2),
+        cborEncodeUs: time(() => cbor.encode(msg)).toFixed(2),
+        jsonDecodeUs: time(() => JSON.parse(json)).toFixed(2),
+        cborDecodeUs: time(() => cbor.decode(bin)).toFixed(2)
+    });
+}
+
+console.log(`Wire format benchmark (${ITERATIONS} iterations, Node ${process.version})`);
+console.table(rows);
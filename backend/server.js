@@ -6,13 +6,16 @@ const path = require('path');
 const logger = require('./config/logger');
 const requestLogger = require('./middleware/requestLogger');
 const errorHandler = require('./middleware/errorHandler');
+const wireFormat = require('./middleware/wireFormat');
 
 const app = express();
 const PORT = process.env.PORT || 5000;
 
 // Middleware
 app.use(cors());
-app.use(express.json());
+app.use(express.json()); // Also inflates gzip/deflate bodies
+app.use(wireFormat.parseBody); // CBOR device payloads
+app.use(wireFormat.negotiate); // CBOR responses when the device asks for them
 app.use(requestLogger); // Log all requests
 
 // Start EMI Scheduler
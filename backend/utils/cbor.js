@@ -0,0 +1,211 @@
+/**
+ * CBOR Codec (RFC 8949 subset)
+ * Compact binary encoding for device <-> server messages. Covers what the
+ * device protocol uses: maps with string keys, arrays, text/byte strings,
+ * integers, floats, booleans and null. Definite lengths only.
+ */
+
+// Encoding - one growable buffer per message, no per-token allocations
+
+class Writer {
+    constructor() {
+        this.buf = Buffer.allocUnsafe(256);
+        this.pos = 0;
+    }
+
+    ensure(n) {
+        if (this.pos + n <= this.buf.length) return;
+        const grown = Buffer.allocUnsafe(Math.max(this.buf.length * 2, this.pos + n));
+        this.buf.copy(grown, 0, 0, this.pos);
+        this.buf = grown;
+    }
+
+    head(major, length) {
+        const mt = major << 5;
+        this.ensure(9);
+        if (length < 24) {
+            this.buf[this.pos++] = mt | length;
+        } else if (length < 0x100) {
+            this.buf[this.pos++] = mt | 24;
+            this.buf[this.pos++] = length;
+        } else if (length < 0x10000) {
+            this.buf[this.pos++] = mt | 25;
+            this.pos = this.buf.writeUInt16BE(length, this.pos);
+        } else if (length < 0x100000000) {
+            this.buf[this.pos++] = mt | 26;
+            this.pos = this.buf.writeUInt32BE(length, this.pos);
+        } else {
+            this.buf[this.pos++] = mt | 27;
+            this.pos = this.buf.writeBigUInt64BE(BigInt(length), this.pos);
+        }
+    }
+
+    byte(b) {
+        this.ensure(1);
+        this.buf[this.pos++] = b;
+    }
+
+    text(value) {
+        const len = Buffer.byteLength(value, 'utf8');
+        this.head(3, len);
+        this.ensure(len);
+        this.pos += this.buf.write(value, this.pos, 'utf8');
+    }
+
+    bytes(value) {
+        this.head(2, value.length);
+        this.ensure(value.length);
+        this.pos += value.copy(this.buf, this.pos);
+    }
+
+    value(value) {
+        if (value === null || value === undefined) {
+            this.byte(0xf6);
+        } else if (value === false) {
+            this.byte(0xf4);
+        } else if (value === true) {
+            this.byte(0xf5);
+        } else if (typeof value === 'number') {
+            if (Number.isSafeInteger(value)) {
+                if (value >= 0) this.head(0, value);
+                else this.head(1, -1 - value);
+            } else if (Math.fround(value) === value) {
+                this.ensure(5);
+                this.buf[this.pos++] = 0xfa;
+                this.pos = this.buf.writeFloatBE(value, this.pos);
+            } else {
+                this.ensure(9);
+                this.buf[this.pos++] = 0xfb;
+                this.pos = this.buf.writeDoubleBE(value, this.pos);
+            }
+        } else if (typeof value === 'string') {
+            this.text(value);
+        } else if (Buffer.isBuffer(value)) {
+            this.bytes(value);
+        } else if (value instanceof Date) {
+            this.value(value.getTime());
+        } else if (Array.isArray(value)) {
+            this.head(4, value.length);
+            for (const item of value) this.value(item);
+        } else if (typeof value === 'object') {
+            // Mongoose documents and other objects with toJSON serialize like JSON.stringify would
+            if (typeof value.toJSON === 'function') {
+                this.value(value.toJSON());
+                return;
+            }
+            const keys = Object.keys(value).filter(k => value[k] !== undefined && typeof value[k] !== 'function');
+            this.head(5, keys.length);
+            for (const key of keys) {
+                this.text(key);
+                this.value(value[key]);
+            }
+        } else {
+            throw new TypeError(`CBOR: cannot encode ${typeof value}`);
+        }
+    }
+}
+
+function encode(value) {
+    const writer = new Writer();
+    writer.value(value);
+    return Buffer.from(writer.buf.subarray(0, writer.pos));
+}
+
+// Decoding
+
+function decode(buffer) {
+    let pos = 0;
+
+    function need(n) {
+        if (pos + n > buffer.length) throw new Error('CBOR: unexpected end of input');
+    }
+
+    function readLength(info) {
+        if (info < 24) return info;
+        if (info === 24) { need(1); return buffer[pos++]; }
+        if (info === 25) { need(2); const v = buffer.readUInt16BE(pos); pos += 2; return v; }
+        if (info === 26) { need(4); const v = buffer.readUInt32BE(pos); pos += 4; return v; }
+        if (info === 27) {
+            need(8);
+            const v = buffer.readBigUInt64BE(pos);
+            pos += 8;
+            if (v > BigInt(Number.MAX_SAFE_INTEGER)) throw new Error('CBOR: integer too large');
+            return Number(v);
+        }
+        throw new Error('CBOR: indefinite lengths are not supported');
+    }
+
+    function readValue() {
+        need(1);
+        const initial = buffer[pos++];
+        const major = initial >> 5;
+        const info = initial & 0x1f;
+
+        switch (major) {
+            case 0: return readLength(info);
+            case 1: return -1 - readLength(info);
+            case 2: {
+                const len = readLength(info);
+                need(len);
+                const bytes = Buffer.from(buffer.subarray(pos, pos + len));
+                pos += len;
+                return bytes;
+            }
+            case 3: {
+                const len = readLength(info);
+                need(len);
+                const text = buffer.toString('utf8', pos, pos + len);
+                pos += len;
+                return text;
+            }
+            case 4: {
+                const len = readLength(info);
+                const arr = new Array(len);
+                for (let i = 0; i < len; i++) arr[i] = readValue();
+                return arr;
+            }
+            case 5: {
+                const len = readLength(info);
+                const obj = {};
+                for (let i = 0; i < len; i++) {
+                    const key = readValue();
+                    obj[String(key)] = readValue();
+                }
+                return obj;
+            }
+            case 6:
+                readLength(info); // Tags carry no meaning in our protocol - return the tagged value
+                return readValue();
+            case 7:
+                if (info === 20) return false;
+                if (info === 21) return true;
+                if (info === 22 || info === 23) return null;
+                if (info === 25) {
+                    need(2);
+                    const half = buffer.readUInt16BE(pos);
+                    pos += 2;
+                    return decodeHalf(half);
+                }
+                if (info === 26) { need(4); const v = buffer.readFloatBE(pos); pos += 4; return v; }
+                if (info === 27) { need(8); const v = buffer.readDoubleBE(pos); pos += 8; return v; }
+                throw new Error(`CBOR: unsupported simple value ${info}`);
+            default:
+                throw new Error(`CBOR: bad major type ${major}`);
+        }
+    }
+
+    const value = readValue();
+    if (pos !== buffer.length) throw new Error('CBOR: trailing bytes');
+    return value;
+}
+
+function decodeHalf(half) {
+    const exp = (half >> 10) & 0x1f;
+    const mant = half & 0x3ff;
+    const sign = half & 0x8000 ? -1 : 1;
+    if (exp === 0) return sign * Math.pow(2, -14) * (mant / 1024);
+    if (exp === 31) return mant ? NaN : sign * Infinity;
+    return sign * Math.pow(2, exp - 15) * (1 + mant / 1024);
+}
+
+module.exports = { encode, decode };
@@ -0,0 +1,375 @@
+/**
+ * Device Reports
+ * Shared handlers for everything a device reports to the backend (SIM change,
+ * security events, device registration). Used by the individual report routes
+ * and by the batched /sync endpoint, which applies queued reports that arrive
+ * piggybacked on the heartbeat.
+ */
+const Customer = require('../models/Customer');
+const Device = require('../models/Device');
+
+// Events that lock the device as soon as they are reported
+const AUTO_LOCK_EVENTS = ['SAFE_MODE_ATTEMPT', 'ROOT_DETECTED', 'TAMPERING', 'SMS_LOCK'];
+
+// Applied report ids kept per customer - far more than one device resends
+const MAX_PROCESSED_REPORT_IDS = 500;
+
+/**
+ * Record a SIM change and auto-lock the device
+ * @returns {Promise<boolean>} false when the customer does not exist
+ */
+async function recordSimChange(customerId, report, ipAddress) {
+    const { originalIccid, newIccid, newOperator, timestamp } = report;
+
+    console.log(`🚨 SIM CHANGE REPORTED for ${customerId}`);
+    console.log(`   Original ICCID: ${originalIccid}`);
+    console.log(`   New ICCID: ${newIccid}`);
+    console.log(`   New Operator: ${newOperator}`);
+
+    const updateData = {
+        $push: {
+            simChangeHistory: {
+                serialNumber: newIccid,
+                operator: newOperator,
+                detectedAt: new Date(timestamp || Date.now()),
+                ipAddress
+            },
+            lockHistory: {
+                id: Date.now().toString(),
+                action: 'locked',
+                reason: `SIM change detected: ${newOperator || 'Unknown'}`,
+                timestamp: new Date().toISOString()
+            }
+        },
+        $set: {
+            isLocked: true, // Auto-lock on SIM change
+            'deviceStatus.status': 'warning',
+            'deviceStatus.errorMessage': `Unauthorized SIM change detected at ${new Date().toISOString()}`,
+            'simDetails.serialNumber': newIccid,
+            'simDetails.operator': newOperator,
+            'simDetails.isAuthorized': false,
+            'simDetails.lastUpdated': new Date()
+        }
+    };
+
+    const customer = await Customer.findOneAndUpdate(
+        { id: customerId },
+        updateData,
+        { new: true }
+    );
+
+    if (customer) {
+        console.log(`🔒 Device auto-locked due to SIM change`);
+    }
+    return !!customer;
+}
+
+/**
+ * Record a security event, auto-locking for tamper-class events
+ * @returns {Promise<boolean>} false when the customer does not exist
+ */
+async function recordSecurityEvent(customerId, report, ipAddress) {
+    const { event, timestamp, action, details } = report;
+
+    console.log(`🚨 SECURITY EVENT for ${customerId}: ${event}`);
+
+    const updateData = {
+        $push: {
+            securityEvents: {
+                event,
+                timestamp: new Date(timestamp || Date.now()),
+                action,
+                details,
+                ipAddress
+            }
+        }
+    };
+
+    // Auto-lock for certain events
+    if (AUTO_LOCK_EVENTS.includes(event)) {
+        updateData.$set = {
+            isLocked: true,
+            'deviceStatus.status': 'warning',
+            'deviceStatus.errorMessage': `Security event: ${event}`
+        };
+        updateData.$push.lockHistory = {
+            id: Date.now().toString(),
+            action: 'locked',
+            reason: `Security event: ${event}`,
+            timestamp: new Date().toISOString()
+        };
+        console.log(`🔒 Device auto-locked due to security event`);
+    }
+
+    const customer = await Customer.findOneAndUpdate(
+        { id: customerId },
+        updateData,
+        { new: true }
+    );
+    return !!customer;
+}
+
+/**
+ * Keep the latest lock/unlock timing breakdown per transition type, so lock
+ * latency can be watched per device model
+ */
+async function recordTransitionTiming(customerId, report) {
+    const { transition, totalMs, timeToVisibleMs, steps, resumed, manufacturer, model, sdkLevel, timestamp } = report;
+    if (transition !== 'lock' && transition !== 'unlock') {
+        const err = new Error('transition must be lock or unlock');
+        err.status = 400;
+        throw err;
+    }
+
+    await Customer.updateOne(
+        { id: customerId },
+        {
+            $set: {
+                [`deviceStatus.lockTiming.${transition}`]: {
+                    totalMs,
+                    timeToVisibleMs,
+                    steps,
+                    resumed: !!resumed,
+                    manufacturer,
+                    model,
+                    sdkLevel,
+                    reportedAt: new Date(timestamp || Date.now())
+                }
+            }
+        },
+        // Telemetry, not a lock decision - updatedAt is the status version the device sees
+        { timestamps: false }
+    );
+}
+
+/**
+ * Register a new device or update an existing one with fresh device info
+ */
+async function registerDevice(body) {
+    const {
+        deviceId, platform, brand, model, osVersion, sdkLevel, serialNumber,
+        imei1, imei2, androidId,
+        sim1, sim2, isDualSim, simOperator, simIccid,
+        networkType, networkOperator, isConnected,
+        batteryLevel, isCharging,
+        totalStorage, availableStorage,
+        location,
+        enrollmentToken, customerId
+    } = body;
+
+    if (!deviceId) {
+        const err = new Error('deviceId is required');
+        err.status = 400;
+        throw err;
+    }
+
+    // Find existing or create new
+    let device = await Device.findOne({ deviceId });
+
+    if (device) {
+        // Update existing device with all new data
+        device.brand = brand || device.brand;
+        device.model = model || device.model;
+        device.osVersion = osVersion || device.osVersion;
+        device.sdkLevel = sdkLevel || device.sdkLevel;
+        device.serialNumber = serialNumber || device.serialNumber;
+        device.imei1 = imei1 || device.imei1;
+        device.imei2 = imei2 || device.imei2;
+        device.androidId = androidId || device.androidId;
+
+        // SIM info
+        if (sim1) device.sim1 = sim1;
+        if (sim2) device.sim2 = sim2;
+        device.isDualSim = isDualSim ?? device.isDualSim;
+        device.simOperator = simOperator || device.simOperator;
+        device.simIccid = simIccid || device.simIccid;
+
+        // Network
+        device.networkType = networkType || device.networkType;
+        device.networkOperator = networkOperator || device.networkOperator;
+        device.isConnected = isConnected ?? true;
+
+        // Battery
+        if (batteryLevel !== undefined) device.batteryLevel = batteryLevel;
+        if (isCharging !== undefined) device.isCharging = isCharging;
+
+        // Storage
+        device.totalStorage = totalStorage || device.totalStorage;
+        device.availableStorage = availableStorage || device.availableStorage;
+
+        // Location
+        if (location) {
+            device.lastLocation = {
+                lat: location.lat,
+                lng: location.lng,
+                accuracy: location.accuracy,
+                timestamp: new Date()
+            };
+        }
+
+        device.lastSeenAt = new Date();
+
+        // If device was PENDING and now reporting, mark as ACTIVE
+        if (device.state === 'PENDING') {
+            device.state = 'ACTIVE';
+            device.stateHistory.push({
+                state: 'ACTIVE',
+                reason: 'Device enrolled successfully',
+                changedAt: new Date()
+            });
+        }
+
+        await device.save();
+        console.log(`📱 Device updated: ${deviceId}`);
+    } else {
+        // Create new device with all data
+        device = new Device({
+            deviceId,
+            platform: platform || 'android',
+            brand,
+            model,
+            osVersion,
+            sdkLevel,
+            serialNumber,
+            imei1,
+            imei2,
+            androidId,
+            sim1,
+            sim2,
+            isDualSim,
+            simOperator,
+            simIccid,
+            networkType,
+            networkOperator,
+            isConnected: isConnected ?? true,
+            batteryLevel,
+            isCharging,
+            totalStorage,
+            availableStorage,
+            lastLocation: location ? {
+                lat: location.lat,
+                lng: location.lng,
+                accuracy: location.accuracy,
+                timestamp: new Date()
+            } : undefined,
+            state: customerId ? 'ACTIVE' : 'UNASSIGNED',
+            assignedCustomerId: customerId || null,
+            lastSeenAt: new Date(),
+            stateHistory: [{
+                state: customerId ? 'ACTIVE' : 'UNASSIGNED',
+                reason: 'Device registered',
+                changedAt: new Date()
+            }]
+        });
+
+        await device.save();
+        console.log(`📱 New device registered: ${deviceId}`);
+    }
+
+    // Also update customer if provided
+    if (customerId) {
+        await Customer.findOneAndUpdate(
+            { id: customerId },
+            {
+                $set: {
+                    'deviceStatus.status': 'connected',
+                    'deviceStatus.lastSeen': new Date(),
+                    'deviceStatus.technical.brand': brand,
+                    'deviceStatus.technical.model': model,
+                    'deviceStatus.technical.osVersion': osVersion,
+                    'deviceStatus.technical.androidId': androidId,
+                    'deviceStatus.technical.imei1': imei1,
+                    'deviceStatus.technical.imei2': imei2,
+                    'deviceStatus.technical.batteryLevel': batteryLevel,
+                    'deviceStatus.technical.networkType': networkType
+                }
+            }
+        );
+    }
+
+    return device;
+}
+
+/**
+ * Atomically record a report id as applied
+ * @returns {Promise<boolean>} false when the id was seen before (or the customer doesn't exist)
+ */
+async function claimReport(customerId, reportId) {
+    const result = await Customer.updateOne(
+        { id: customerId, processedReportIds: { $ne: reportId } },
+        { $push: { processedReportIds: { $each: [reportId], $slice: -MAX_PROCESSED_REPORT_IDS } } },
+        // Bookkeeping, not a lock decision - updatedAt is the status version the device sees
+        { timestamps: false }
+    );
+    return result.modifiedCount > 0;
+}
+
+async function releaseReport(customerId, reportId) {
+    await Customer.updateOne(
+        { id: customerId },
+        { $pull: { processedReportIds: reportId } },
+        { timestamps: false }
+    );
+}
+
+/**
+ * Apply a batch of queued device reports
+ * Each report is { id, type, data, timestamp }. Returns the ids the device may
+ * delete: applied reports, plus malformed/unknown ones that would never succeed.
+ * Failed reports are left out so the device retries them next cycle.
+ * Ids are claimed before applying, so a report resent after a lost response (or
+ * sent by two overlapping syncs) is applied once and only acknowledged again.
+ */
+async function applyReports(customerId, reports, ipAddress) {
+    const acks = [];
+
+    for (const report of reports) {
+        if (!report || !report.id) continue;
+        const data = report.data || {};
+
+        if (!(await claimReport(customerId, String(report.id)))) {
+            acks.push(report.id); // Already applied
+            continue;
+        }
+
+        try {
+            switch (report.type) {
+                case 'sim_change':
+                    await recordSimChange(customerId, data, ipAddress);
+                    break;
+                case 'security_event':
+                    await recordSecurityEvent(customerId, { timestamp: report.timestamp, ...data }, ipAddress);
+                    break;
+                case 'transition_timing':
+                    await recordTransitionTiming(customerId, data);
+                    break;
+                case 'device_info':
+                    await registerDevice({ ...data, customerId: data.customerId || customerId });
+                    break;
+                default:
+                    console.warn(`Unknown report type from ${customerId}: ${report.type}`);
+                    break;
+            }
+            acks.push(report.id);
+        } catch (err) {
+            if (err.status === 400) {
+                acks.push(report.id); // Will never succeed - drop it
+            } else {
+                // Let the retry apply it
+                await releaseReport(customerId, String(report.id))
+                    .catch(e => console.error(`Report ${report.id} release failed:`, e.message));
+            }
+            console.error(`Report ${report.type} failed for ${customerId}:`, err.message);
+        }
+    }
+
+    return acks;
+}
+
+module.exports = {
+    recordSimChange,
+    recordSecurityEvent,
+    recordTransitionTiming,
+    registerDevice,
+    applyReports
+};
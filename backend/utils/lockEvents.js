@@ -0,0 +1,116 @@
+const lockLease = require('./lockLease');
+
+/**
+ * Lock Event Hub
+ * Keeps one Server-Sent Events stream open per enrolled device and pushes
+ * lock/unlock decisions the moment they are stored, so devices no longer
+ * have to poll for them.
+ */
+class LockEventHub {
+    constructor() {
+        // customerId -> Set of open responses
+        this.subscribers = new Map();
+
+        // Heartbeat frame interval - devices treat 3 missed frames as a dead channel
+        this.HEARTBEAT_INTERVAL = 20 * 1000;
+
+        this.heartbeatTimer = setInterval(() => this.sendHeartbeats(), this.HEARTBEAT_INTERVAL);
+        if (this.heartbeatTimer.unref) this.heartbeatTimer.unref();
+    }
+
+    /**
+     * Attach an SSE response for a device and send the current state immediately
+     */
+    subscribe(customerId, res, initialState) {
+        res.writeHead(200, {
+            'Content-Type': 'text/event-stream',
+            'Cache-Control': 'no-cache, no-transform',
+            'Connection': 'keep-alive',
+            'X-Accel-Buffering': 'no' // Disable proxy buffering (Render/nginx)
+        });
+        res.write(`retry: 5000\n\n`);
+
+        if (!this.subscribers.has(customerId)) {
+            this.subscribers.set(customerId, new Set());
+        }
+        this.subscribers.get(customerId).add(res);
+
+        if (initialState) {
+            this.write(res, 'state', initialState);
+        }
+
+        res.on('close', () => this.unsubscribe(customerId, res));
+    }
+
+    unsubscribe(customerId, res) {
+        const streams = this.subscribers.get(customerId);
+        if (!streams) return;
+        streams.delete(res);
+        if (streams.size === 0) {
+            this.subscribers.delete(customerId);
+        }
+    }
+
+    /**
+     * Push an event to every open stream of a device
+     * Returns the number of streams that received it
+     */
+    publish(customerId, event, data) {
+        const streams = this.subscribers.get(customerId);
+        if (!streams || streams.size === 0) return 0;
+
+        for (const res of streams) {
+            this.write(res, event, data);
+        }
+        return streams.size;
+    }
+
+    /**
+     * Push the current lock state of a customer document
+     */
+    publishState(customer) {
+        if (!customer || !customer.id) return 0;
+        return this.publish(customer.id, 'state', this.stateFrame(customer));
+    }
+
+    /**
+     * State frame payload - carries a fresh lease so an offline device enforces the pushed decision
+     */
+    stateFrame(customer) {
+        const frame = {
+            isLocked: !!customer.isLocked,
+            ts: Date.now()
+        };
+        const version = customer.updatedAt ? new Date(customer.updatedAt).getTime() : 0;
+        const lease = lockLease.issueLease(customer.id, frame.isLocked, version);
+        if (lease) {
+            Object.assign(frame, lease);
+        }
+        return frame;
+    }
+
+    sendHeartbeats() {
+        const frame = { ts: Date.now() };
+        for (const streams of this.subscribers.values()) {
+            for (const res of streams) {
+                this.write(res, 'heartbeat', frame);
+            }
+        }
+    }
+
+    write(res, event, data) {
+        try {
+            res.write(`event: ${event}\ndata: ${JSON.stringify(data)}\n\n`);
+        } catch (err) {
+            // Socket already gone - 'close' handler will clean up
+        }
+    }
+
+    getStats() {
+        let streams = 0;
+        for (const set of this.subscribers.values()) streams += set.size;
+        return { devices: this.subscribers.size, streams };
+    }
+}
+
+module.exports = new LockEventHub();
@@ -0,0 +1,81 @@
+const crypto = require('crypto');
+
+/**
+ * Lock Lease
+ * Signed, time-bounded statement of what a device should enforce. The device
+ * stores the last lease it received and keeps enforcing it while offline; once
+ * it expires without renewal the device applies the lease's expiry policy.
+ *
+ *   lease    = base64url(JSON { cid, locked, v, iat, exp, onExpiry })
+ *   leaseSig = base64url(ECDSA P-256 / SHA-256 signature over the lease string, DER)
+ *
+ * Env:
+ *   LEASE_PRIVATE_KEY     EC P-256 private key (PEM); leases are disabled when unset
+ *   LEASE_TTL_HOURS       lease lifetime (default 72)
+ *   LEASE_EXPIRY_POLICY   lock | unlock | keep - applied by the device after expiry (default lock)
+ *
+ * Leases are issued per time bucket (a quarter of the TTL) and cached, so a device
+ * polling an unchanged state gets byte-identical bodies and keeps its 304s.
+ */
+const TTL_MS = (parseFloat(process.env.LEASE_TTL_HOURS) || 72) * 60 * 60 * 1000;
+const RENEW_EVERY_MS = TTL_MS / 4;
+const EXPIRY_POLICIES = ['lock', 'unlock', 'keep'];
+const EXPIRY_POLICY = EXPIRY_POLICIES.includes(process.env.LEASE_EXPIRY_POLICY)
+    ? process.env.LEASE_EXPIRY_POLICY
+    : 'lock';
+const MAX_CACHED = 10000;
+
+let privateKey = null;
+let publicKeyDer = null;
+try {
+    if (process.env.LEASE_PRIVATE_KEY) {
+        // Env vars often carry PEM newlines escaped
+        privateKey = crypto.createPrivateKey(process.env.LEASE_PRIVATE_KEY.replace(/\\n/g, '\n'));
+        publicKeyDer = crypto.createPublicKey(privateKey)
+            .export({ type: 'spki', format: 'der' })
+            .toString('base64');
+    }
+} catch (err) {
+    console.error('❌ LEASE_PRIVATE_KEY is invalid - lock leases disabled:', err.message);
+    privateKey = null;
+}
+
+// cid|locked|v|bucket -> { lease, leaseSig }
+const cache = new Map();
+
+const isEnabled = () => privateKey !== null;
+
+// Base64 SPKI public key for provisioning; null when leases are disabled
+const getPublicKey = () => publicKeyDer;
+
+/**
+ * Signed lease for a customer's current lock state, or null when leases are disabled
+ */
+function issueLease(customerId, isLocked, version) {
+    if (!privateKey || !customerId) return null;
+
+    const bucket = Math.floor(Date.now() / RENEW_EVERY_MS);
+    const key = `${customerId}|${isLocked ? 1 : 0}|${version}|${bucket}`;
+    const cached = cache.get(key);
+    if (cached) return cached;
+
+    const iat = bucket * RENEW_EVERY_MS;
+    const lease = Buffer.from(JSON.stringify({
+        cid: customerId,
+        locked: !!isLocked,
+        v: version || 0,
+        iat,
+        exp: iat + TTL_MS,
+        onExpiry: EXPIRY_POLICY
+    })).toString('base64url');
+    const leaseSig = crypto.sign('sha256', Buffer.from(lease), privateKey).toString('base64url');
+
+    const issued = { lease, leaseSig };
+    if (cache.size >= MAX_CACHED) {
+        cache.delete(cache.keys().next().value); // Oldest entry
+    }
+    cache.set(key, issued);
+    return issued;
+}
+
+module.exports = { isEnabled, getPublicKey, issueLease };
@@ -0,0 +1,203 @@
+package com.securefinance.emilock;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Vibrator;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * AlarmEngine - Anti-tamper alarm with the sound ready before it is needed
+ *
+ * Features:
+ * - Resolves and prepares the alarm player while the device is locked (preload),
+ *   so a trigger is only volume + start()
+ * - Everything runs on a dedicated urgent-audio thread, never on the caller's thread
+ *   (the power key arrives on the main thread)
+ * - Idempotent: repeated triggers while ringing do nothing
+ * - Stop rewinds instead of releasing, so the next trigger is just as fast;
+ *   release() frees the player on unlock
+ * - Trigger-to-start latency and cold starts in EmiMetrics
+ * - Screen kept on while ringing through a WakeLockManager handle (budgeted, max 10 min)
+ */
+public class AlarmEngine {
+
+    private static final String TAG = "EMI_Alarm";
+
+    private static final long[] VIBRATION_PATTERN = { 0, 1000, 500, 1000, 500 };
+    private static final long WAKE_TIMEOUT_MS = 10 * 60 * 1000L;
+
+    private static AlarmEngine instance;
+
+    private final Context context;
+    private final Handler handler;
+    private final AudioManager audioManager;
+    private final Vibrator vibrator;
+
+    // Audio thread only
+    private MediaPlayer player;
+    private boolean prepared;
+    private WakeLockManager.Handle wakeHandle;
+    // Desired state, set by callers; the audio thread converges on the latest value
+    private final AtomicBoolean ringing = new AtomicBoolean(false);
+
+    private AlarmEngine(Context context) {
+        this.context = context.getApplicationContext();
+        this.audioManager = (AudioManager) this.context.getSystemService(Context.AUDIO_SERVICE);
+        this.vibrator = (Vibrator) this.context.getSystemService(Context.VIBRATOR_SERVICE);
+        HandlerThread thread = new HandlerThread("EMI_Audio", Process.THREAD_PRIORITY_URGENT_AUDIO);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    public static synchronized AlarmEngine getInstance(Context context) {
+        if (instance == null) {
+            instance = new AlarmEngine(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Get the player prepared (call when the device locks)
+     */
+    public void preload() {
+        handler.post(this::prepare);
+    }
+
+    /**
+     * Start ringing - returns immediately
+     */
+    public void start(String source) {
+        if (!ringing.compareAndSet(false, true)) {
+            EmiMetrics.increment("alarm.duplicate");
+            return;
+        }
+        long triggeredAt = SystemClock.elapsedRealtime();
+        Log.i(TAG, "🚨 Alarm triggered by " + source);
+        // Ahead of any queued preload/stop - this is the one the user is waiting on
+        handler.postAtFrontOfQueue(() -> play(triggeredAt));
+    }
+
+    /**
+     * Stop ringing but keep the player prepared for the next trigger
+     */
+    public void stop() {
+        ringing.set(false);
+        handler.post(this::silence);
+    }
+
+    /**
+     * Stop and free the player (call when the device unlocks)
+     */
+    public void release() {
+        ringing.set(false);
+        handler.post(() -> {
+            silence();
+            if (player != null && !ringing.get()) {
+                player.release();
+                player = null;
+                prepared = false;
+                Log.d(TAG, "Alarm player released");
+            }
+        });
+    }
+
+    public boolean isRinging() {
+        return ringing.get();
+    }
+
+    private void play(long triggeredAt) {
+        if (!ringing.get())
+            return; // Stopped before we got here
+        try {
+            boolean cold = !prepared;
+            if (cold) {
+                EmiMetrics.increment("alarm.coldStart");
+                prepare();
+            }
+            if (audioManager != null) {
+                audioManager.setStreamVolume(AudioManager.STREAM_ALARM,
+                        audioManager.getStreamMaxVolume(AudioManager.STREAM_ALARM), 0);
+                audioManager.setStreamVolume(AudioManager.STREAM_RING,
+                        audioManager.getStreamMaxVolume(AudioManager.STREAM_RING), 0);
+            }
+            if (player != null && prepared && !player.isPlaying()) {
+                player.start();
+            }
+            if (vibrator != null) {
+                vibrator.vibrate(VIBRATION_PATTERN, 0); // repeat from index 0
+            }
+            if (wakeHandle == null || !wakeHandle.held()) {
+                // Also after the previous handle's timeout released it
+                wakeHandle = WakeLockManager.getInstance(context).acquireScreen("alarm", WAKE_TIMEOUT_MS);
+            }
+
+            EmiMetrics.recordDuration("alarm.triggerToAudibleMs", SystemClock.elapsedRealtime() - triggeredAt);
+            Log.i(TAG, "Alarm started" + (cold ? " (cold)" : "") + " - device protected");
+
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to start alarm", e);
+        }
+    }
+
+    private void silence() {
+        if (ringing.get())
+            return; // Re-triggered after this stop was queued
+        try {
+            if (player != null && prepared && player.isPlaying()) {
+                player.pause();
+                player.seekTo(0);
+            }
+            if (vibrator != null) {
+                vibrator.cancel();
+            }
+            if (wakeHandle != null) {
+                wakeHandle.release();
+                wakeHandle = null;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to stop alarm", e);
+        }
+    }
+
+    private void prepare() {
+        if (prepared)
+            return;
+        long start = SystemClock.elapsedRealtime();
+        try {
+            Uri alarmUri = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_ALARM);
+            if (alarmUri == null) {
+                alarmUri = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_RINGTONE);
+            }
+
+            if (player == null) {
+                player = new MediaPlayer();
+            } else {
+                player.reset();
+            }
+            player.setDataSource(context, alarmUri);
+            player.setAudioAttributes(new AudioAttributes.Builder()
+                    .setUsage(AudioAttributes.USAGE_ALARM)
+                    .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                    .build());
+            player.setLooping(true);
+            player.prepare(); // Local ringtone file - synchronous is fine on this thread
+            prepared = true;
+            EmiMetrics.recordDuration("alarm.prepareMs", SystemClock.elapsedRealtime() - start);
+            Log.d(TAG, "Alarm sound preloaded");
+
+        } catch (Exception e) {
+            prepared = false;
+            Log.e(TAG, "Failed to prepare alarm sound", e);
+        }
+    }
+}
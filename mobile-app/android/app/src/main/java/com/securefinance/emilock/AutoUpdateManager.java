@@ -18,11 +18,12 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import okhttp3.Request;
+import okhttp3.Response;
+
 /**
  * AutoUpdateManager - Handles silent updates for the User APK
  * 
@@ -53,45 +54,35 @@ public class AutoUpdateManager {
         executor.execute(() -> {
             try {
                 Log.d(TAG, "Checking for updates...");
-                String baseUrl = serverUrl.endsWith("/") ? serverUrl : serverUrl + "/";
-                URL url = new URL(baseUrl + "version");
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("GET");
-
-                if (conn.getResponseCode() == 200) {
-                    InputStream in = conn.getInputStream();
-                    byte[] buffer = new byte[4096];
-                    int n;
-                    StringBuilder sb = new StringBuilder();
-                    while ((n = in.read(buffer)) != -1) {
-                        sb.append(new String(buffer, 0, n));
-                    }
-                    in.close();
-
-                    JSONObject json = new JSONObject(sb.toString());
-                    String appType = currentPackageName.contains("admin") ? "admin" : "user";
-
-                    if (json.has(appType)) {
-                        JSONObject appInfo = json.getJSONObject(appType);
-                        int remoteVersionCode = appInfo.optInt("versionCode", 0);
-                        String downloadPath = appInfo.optString("apk");
-
-                        PackageInfo pInfo = context.getPackageManager().getPackageInfo(currentPackageName, 0);
-                        int currentVersionCode = (int) (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P
-                                ? pInfo.getLongVersionCode()
-                                : pInfo.versionCode);
-
-                        if (remoteVersionCode > currentVersionCode) {
-                            Log.i(TAG, "New version found: " + remoteVersionCode + " (Current: " + currentVersionCode
-                                    + ")");
-                            downloadAndInstall(baseUrl
-                                    + (downloadPath.startsWith("/") ? downloadPath.substring(1) : downloadPath));
-                        } else {
-                            Log.d(TAG, "App is up to date");
+                String baseUrl = ServerConfig.getBaseUrl(context) + "/"; // Follows endpoint failover
+                Request request = new Request.Builder().url(baseUrl + "version").build();
+
+                try (Response response = HttpClientProvider.get().newCall(request).execute()) {
+                    if (response.code() == 200 && response.body() != null) {
+                        JSONObject json = new JSONObject(response.body().string());
+                        String appType = currentPackageName.contains("admin") ? "admin" : "user";
+
+                        if (json.has(appType)) {
+                            JSONObject appInfo = json.getJSONObject(appType);
+                            int remoteVersionCode = appInfo.optInt("versionCode", 0);
+                            String downloadPath = appInfo.optString("apk");
+
+                            PackageInfo pInfo = context.getPackageManager().getPackageInfo(currentPackageName, 0);
+                            int currentVersionCode = (int) (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P
+                                    ? pInfo.getLongVersionCode()
+                                    : pInfo.versionCode);
+
+                            if (remoteVersionCode > currentVersionCode) {
+                                Log.i(TAG, "New version found: " + remoteVersionCode + " (Current: "
+                                        + currentVersionCode + ")");
+                                downloadAndInstall(baseUrl
+                                        + (downloadPath.startsWith("/") ? downloadPath.substring(1) : downloadPath));
+                            } else {
+                                Log.d(TAG, "App is up to date");
+                            }
                         }
                     }
                 }
-                conn.disconnect();
             } catch (Exception e) {
                 Log.e(TAG, "Update check failed: " + e.getMessage());
             }
@@ -102,23 +93,26 @@ public class AutoUpdateManager {
         executor.execute(() -> {
             try {
                 Log.i(TAG, "Downloading update from: " + apkUrl);
-                URL url = new URL(apkUrl);
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+                Request request = new Request.Builder().url(apkUrl).build();
 
                 File tempApk = new File(context.getCacheDir(), "update.apk");
                 if (tempApk.exists())
                     tempApk.delete();
 
-                InputStream in = conn.getInputStream();
-                OutputStream out = new FileOutputStream(tempApk);
-                byte[] buffer = new byte[4096];
-                int n;
-                while ((n = in.read(buffer)) != -1) {
-                    out.write(buffer, 0, n);
+                try (Response response = HttpClientProvider.forDownloads().newCall(request).execute()) {
+                    if (!response.isSuccessful() || response.body() == null) {
+                        Log.e(TAG, "Download failed: HTTP " + response.code());
+                        return;
+                    }
+                    InputStream in = response.body().byteStream();
+                    OutputStream out = new FileOutputStream(tempApk);
+                    byte[] buffer = new byte[65536];
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, n);
+                    }
+                    out.close();
                 }
-                out.close();
-                in.close();
-                conn.disconnect();
 
                 Log.i(TAG, "Download complete, starting silent installation...");
                 installPackage(tempApk);
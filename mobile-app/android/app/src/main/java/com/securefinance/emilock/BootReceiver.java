@@ -58,19 +58,20 @@ public class BootReceiver extends BroadcastReceiver {
                 // 3. Start lock service ALWAYS if provisioned (to listen for lock commands)
                 startLockService(context);
 
-                // 4. 🆕 Process any queued offline commands
-                Log.i(TAG, "💾 Processing offline command queue...");
-                FullDeviceLockManager lockManager = new FullDeviceLockManager(context);
-                OfflineLockCache offlineCache = new OfflineLockCache(context);
-                offlineCache.processQueue(lockManager);
-
-                // 5. Apply lock if needed
+                // 4. Restore lock state - finishes a transition cut short by the
+                // shutdown, otherwise just verifies what DPM kept across the reboot
+                EnforcementActor.getInstance(context).resume("boot");
                 if (isLocked) {
                     Log.i(TAG, "🔒 Restoring lock state...");
-                    lockManager.lockDeviceImmediately();
                     launchLockScreen(context);
                 }
 
+                // 5. 🆕 Process any queued offline commands - after resume, so the
+                // actor's latest-wins mailbox keeps the newer queued command
+                Log.i(TAG, "💾 Processing offline command queue...");
+                OfflineLockCache offlineCache = new OfflineLockCache(context);
+                offlineCache.processQueue();
+
                 // 6. Send device status to backend
                 DeviceInfoCollector.collectAndSend(context, null, null);
 
@@ -87,13 +88,13 @@ public class BootReceiver extends BroadcastReceiver {
     private void handleSafeModeBoot(Context context) {
         Log.w(TAG, "🚨 Handling Safe Mode boot...");
 
-        FullDeviceLockManager lockManager = new FullDeviceLockManager(context);
+        EnforcementActor enforcer = EnforcementActor.getInstance(context);
 
         // Lock immediately
-        lockManager.lockDeviceImmediately();
+        enforcer.lock("safeModeBoot");
 
         // Start alarm
-        lockManager.startPowerButtonAlarm();
+        enforcer.startAlarm("safeModeBoot");
 
         // Start service
         startLockService(context);
@@ -111,10 +112,8 @@ public class BootReceiver extends BroadcastReceiver {
     private void handleSimChangeBoot(Context context) {
         Log.w(TAG, "🚨 Handling SIM change boot...");
 
-        FullDeviceLockManager lockManager = new FullDeviceLockManager(context);
-
         // Lock immediately
-        lockManager.lockDeviceImmediately();
+        EnforcementActor.getInstance(context).lock("simChangeBoot");
 
         // Start service
         startLockService(context);
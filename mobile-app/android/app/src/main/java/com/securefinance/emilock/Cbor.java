@@ -0,0 +1,137 @@
+package com.securefinance.emilock;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * Cbor - Minimal CBOR (RFC 8949) encoder for device messages
+ *
+ * Features:
+ * - Encodes the JSONObject / JSONArray trees the device already builds
+ * - Integers use the shortest head, doubles drop to float32 when exact
+ * - One growable byte[] per message, no intermediate String
+ *
+ * Decoding of server responses is streamed directly by LockStatus.readCborFrom().
+ */
+public final class Cbor {
+
+    private byte[] buf = new byte[256];
+    private int pos = 0;
+
+    private Cbor() {
+    }
+
+    public static byte[] encode(Object value) {
+        Cbor cbor = new Cbor();
+        cbor.write(value);
+        byte[] out = new byte[cbor.pos];
+        System.arraycopy(cbor.buf, 0, out, 0, cbor.pos);
+        return out;
+    }
+
+    private void write(Object value) {
+        if (value == null || value == JSONObject.NULL) {
+            put(0xf6);
+        } else if (value instanceof Boolean) {
+            put((Boolean) value ? 0xf5 : 0xf4);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            long v = ((Number) value).longValue();
+            if (v >= 0) {
+                head(0, v);
+            } else {
+                head(1, -1 - v);
+            }
+        } else if (value instanceof Number) {
+            double d = ((Number) value).doubleValue();
+            if (d == Math.rint(d) && !Double.isInfinite(d) && Math.abs(d) < (1L << 53)) {
+                write((long) d);
+            } else if ((float) d == d) {
+                put(0xfa);
+                putInt(Float.floatToIntBits((float) d));
+            } else {
+                put(0xfb);
+                long bits = Double.doubleToLongBits(d);
+                putInt((int) (bits >>> 32));
+                putInt((int) bits);
+            }
+        } else if (value instanceof JSONObject) {
+            JSONObject obj = (JSONObject) value;
+            head(5, obj.length());
+            Iterator<String> keys = obj.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                text(key);
+                write(obj.opt(key));
+            }
+        } else if (value instanceof JSONArray) {
+            JSONArray arr = (JSONArray) value;
+            head(4, arr.length());
+            for (int i = 0; i < arr.length(); i++) {
+                write(arr.opt(i));
+            }
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            head(2, bytes.length);
+            putBytes(bytes);
+        } else {
+            text(value.toString());
+        }
+    }
+
+    private void text(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        head(3, bytes.length);
+        putBytes(bytes);
+    }
+
+    private void head(int major, long length) {
+        int mt = major << 5;
+        if (length < 24) {
+            put(mt | (int) length);
+        } else if (length < 0x100) {
+            put(mt | 24);
+            put((int) length);
+        } else if (length < 0x10000) {
+            put(mt | 25);
+            put((int) (length >> 8));
+            put((int) length);
+        } else if (length < 0x100000000L) {
+            put(mt | 26);
+            putInt((int) length);
+        } else {
+            put(mt | 27);
+            putInt((int) (length >>> 32));
+            putInt((int) length);
+        }
+    }
+
+    private void putInt(int v) {
+        put(v >>> 24);
+        put(v >>> 16);
+        put(v >>> 8);
+        put(v);
+    }
+
+    private void put(int b) {
+        ensure(1);
+        buf[pos++] = (byte) b;
+    }
+
+    private void putBytes(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
+    }
+
+    private void ensure(int n) {
+        if (pos + n <= buf.length)
+            return;
+        byte[] grown = new byte[Math.max(buf.length * 2, pos + n)];
+        System.arraycopy(buf, 0, grown, 0, pos);
+        buf = grown;
+    }
+}
@@ -28,6 +28,8 @@ public class DeviceAdminReceiver extends android.app.admin.DeviceAdminReceiver {
         // Extract optional extras from QR
         String customerId = null;
         String serverUrl = null;
+        String serverUrls = null;
+        String leasePublicKey = null;
 
         try {
             android.os.PersistableBundle extras = intent
@@ -35,6 +37,10 @@ public class DeviceAdminReceiver extends android.app.admin.DeviceAdminReceiver {
             if (extras != null) {
                 customerId = extras.getString("customerId");
                 serverUrl = extras.getString("serverUrl");
+                // Optional comma-separated failover endpoints
+                serverUrls = extras.getString("serverUrls");
+                // Trust anchor for signed lock leases
+                leasePublicKey = extras.getString("leasePublicKey");
                 Log.d(TAG, "QR extras - customerId: " + customerId + ", serverUrl: " + serverUrl);
             }
         } catch (Exception e) {
@@ -43,12 +49,13 @@ public class DeviceAdminReceiver extends android.app.admin.DeviceAdminReceiver {
 
         // Default to production server
         if (serverUrl == null || serverUrl.isEmpty()) {
-            serverUrl = "https://emi-pro-app.onrender.com";
+            serverUrl = ServerConfig.DEFAULT_SERVER_URL;
             Log.i(TAG, "Using default server: " + serverUrl);
         }
 
-        // 1. Initialize Full Device Lock Manager
-        FullDeviceLockManager lockManager = new FullDeviceLockManager(context);
+        // 1. Initialize Full Device Lock Manager (we just became owner - drop any cached answer)
+        FullDeviceLockManager lockManager = FullDeviceLockManager.getInstance(context);
+        lockManager.refreshOwnerState();
 
         // 2. Grant all permissions automatically (before user interaction)
         Log.i(TAG, "📋 Granting all permissions automatically...");
@@ -85,6 +92,8 @@ public class DeviceAdminReceiver extends android.app.admin.DeviceAdminReceiver {
         android.content.SharedPreferences prefs = context.getSharedPreferences("PhoneLockPrefs", Context.MODE_PRIVATE);
         prefs.edit()
                 .putString("SERVER_URL", serverUrl)
+                .putString(EndpointSelector.KEY_SERVER_URLS, serverUrls != null ? serverUrls : "")
+                .putString(LockLease.KEY_PUBLIC_KEY, leasePublicKey)
                 .putString("CUSTOMER_ID", customerId)
                 .putBoolean("IS_PROVISIONED", true)
                 .putBoolean("DEVICE_LOCKED", false) // Device starts UNLOCKED
@@ -109,18 +118,10 @@ public class DeviceAdminReceiver extends android.app.admin.DeviceAdminReceiver {
         String action = intent.getAction();
 
         if (Intent.ACTION_BOOT_COMPLETED.equals(action)) {
-            Log.d(TAG, "📱 Boot completed - restoring lock state");
+            Log.d(TAG, "📱 Boot completed");
 
-            // Check if device was locked
-            android.content.SharedPreferences prefs = context.getSharedPreferences("PhoneLockPrefs",
-                    Context.MODE_PRIVATE);
-            boolean wasLocked = prefs.getBoolean("DEVICE_LOCKED", false);
-
-            if (wasLocked) {
-                // Re-apply lock
-                FullDeviceLockManager lockManager = new FullDeviceLockManager(context);
-                lockManager.lockDeviceImmediately();
-            }
+            // Lock state is restored by BootReceiver (resume + offline queue replay);
+            // a forced lock here would override a queued unlock it just replayed
 
             // Start lock service
             startLockService(context);
@@ -134,6 +135,7 @@ public class DeviceAdminReceiver extends android.app.admin.DeviceAdminReceiver {
     public void onEnabled(Context context, Intent intent) {
         super.onEnabled(context, intent);
         Log.d(TAG, "✅ Device Admin Enabled");
+        FullDeviceLockManager.getInstance(context).refreshOwnerState();
 
         // Send device info when admin is enabled
         DeviceInfoCollector.collectAndSend(context, null, null);
@@ -147,6 +149,7 @@ public class DeviceAdminReceiver extends android.app.admin.DeviceAdminReceiver {
     public void onDisabled(Context context, Intent intent) {
         Log.w(TAG, "⚠️ Device Admin Disabled - This should not happen!");
         super.onDisabled(context, intent);
+        FullDeviceLockManager.getInstance(context).refreshOwnerState();
     }
 
     @Override
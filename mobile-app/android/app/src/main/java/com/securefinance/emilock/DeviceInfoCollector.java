@@ -9,11 +9,11 @@ import android.util.Log;
 import org.json.JSONObject;
 import android.location.Location;
 import android.location.LocationManager;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.List;
 
+import okhttp3.Request;
+import okhttp3.Response;
+
 public class DeviceInfoCollector {
 
     private static final String PREF = "device_report";
@@ -23,6 +23,15 @@ public class DeviceInfoCollector {
     public static void collectAndSend(Context context, String customerId, String serverUrl) {
         try {
             JSONObject payload = buildPayload(context, customerId, serverUrl);
+
+            if (isProvisioned(context, customerId)) {
+                // Heartbeat is (or will be) running - ride on its next round trip
+                ReportOutbox.enqueue(context, "device_info", payload, false);
+                clearPending(context);
+                return;
+            }
+
+            // Not yet tied to a customer: register directly (IMEI-only provisioning)
             savePending(context, payload);
 
             // Run network on background thread
@@ -130,6 +139,13 @@ public class DeviceInfoCollector {
         return imei;
     }
 
+    private static boolean isProvisioned(Context context, String customerId) {
+        if (customerId != null)
+            return true;
+        return context.getSharedPreferences("PhoneLockPrefs", Context.MODE_PRIVATE)
+                .getString("CUSTOMER_ID", null) != null;
+    }
+
     private static void savePending(Context context, JSONObject payload) {
         context.getSharedPreferences(PREF, Context.MODE_PRIVATE)
                 .edit()
@@ -143,30 +159,24 @@ public class DeviceInfoCollector {
             Log.d(TAG, "Attempting to send device info...");
 
             // Use serverUrl from payload if present, otherwise fallback to production
-            String baseUrl = payload.optString("serverUrl", "https://emi-pro-app.onrender.com");
-            if (baseUrl.endsWith("/")) {
-                baseUrl = baseUrl.substring(0, baseUrl.length() - 1);
+            String baseUrl = ServerConfig.normalize(payload.optString("serverUrl", null));
+            Request request = WireFormat.post(context,
+                    new Request.Builder().url(baseUrl + "/api/devices/register"), payload)
+                    .build();
+
+            int code;
+            try (Response response = HttpClientProvider.forReports().newCall(request).execute()) {
+                code = response.code();
             }
-            URL url = new URL(baseUrl + "/api/devices/register");
-
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type", "application/json");
-            conn.setDoOutput(true);
-            conn.setConnectTimeout(10000);
-            conn.setReadTimeout(10000);
-
-            OutputStream os = conn.getOutputStream();
-            os.write(payload.toString().getBytes());
-            os.close();
-
-            int code = conn.getResponseCode();
             Log.d(TAG, "Server Response: " + code);
 
             if (code >= 200 && code < 300) {
                 clearPending(context);
                 Log.d(TAG, "✅ Device info synced & cleared from local storage");
             } else {
+                if (code == 415) {
+                    WireFormat.onUnsupported(context); // Retry goes out as JSON
+                }
                 Log.e(TAG, "❌ Server returned error, keeping pending data: " + code);
             }
 
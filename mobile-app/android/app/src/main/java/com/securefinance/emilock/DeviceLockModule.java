@@ -11,6 +11,7 @@ import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.Arguments;
 import java.util.Map;
@@ -46,7 +47,7 @@ public class DeviceLockModule extends ReactContextBaseJavaModule {
             this.devicePolicyManager = (DevicePolicyManager) reactContext
                     .getSystemService(Context.DEVICE_POLICY_SERVICE);
             this.adminComponent = new ComponentName(reactContext, DeviceAdminReceiver.class);
-            this.lockManager = new FullDeviceLockManager(reactContext);
+            this.lockManager = FullDeviceLockManager.getInstance(reactContext);
         } catch (Exception e) {
             android.util.Log.w("DeviceLockModule", "Device Admin not available: " + e.getMessage());
             this.devicePolicyManager = null;
@@ -123,7 +124,7 @@ public class DeviceLockModule extends ReactContextBaseJavaModule {
     }
 
     private boolean isDeviceOwner() {
-        return devicePolicyManager != null && devicePolicyManager.isDeviceOwnerApp(reactContext.getPackageName());
+        return FullDeviceLockManager.getInstance(reactContext).isDeviceOwner();
     }
 
     @ReactMethod
@@ -176,7 +177,7 @@ public class DeviceLockModule extends ReactContextBaseJavaModule {
     public void lockDeviceImmediately(Promise promise) {
         try {
             if (lockManager != null && isDeviceOwner()) {
-                lockManager.lockDeviceImmediately();
+                EnforcementActor.getInstance(reactContext).lock("app");
                 promise.resolve(true);
             } else {
                 promise.reject("ERROR", "Not device owner or lock manager unavailable");
@@ -193,7 +194,7 @@ public class DeviceLockModule extends ReactContextBaseJavaModule {
     public void unlockDevice(Promise promise) {
         try {
             if (lockManager != null && isDeviceOwner()) {
-                lockManager.unlockDevice();
+                EnforcementActor.getInstance(reactContext).unlock("app");
                 promise.resolve(true);
             } else {
                 promise.reject("ERROR", "Not device owner or lock manager unavailable");
@@ -210,7 +211,7 @@ public class DeviceLockModule extends ReactContextBaseJavaModule {
     public static void enforceLock(Context context) {
         try {
             DevicePolicyManager dpm = (DevicePolicyManager) context.getSystemService(Context.DEVICE_POLICY_SERVICE);
-            if (dpm != null && dpm.isDeviceOwnerApp(context.getPackageName())) {
+            if (dpm != null && FullDeviceLockManager.getInstance(context).isDeviceOwner()) {
                 dpm.lockNow();
                 // Optionally enforce keyguard if needed, but lockNow is usually sufficient
             }
@@ -252,6 +253,7 @@ public class DeviceLockModule extends ReactContextBaseJavaModule {
         try {
             if (isDeviceOwner() && devicePolicyManager.isAdminActive(adminComponent)) {
                 devicePolicyManager.setCameraDisabled(adminComponent, disable);
+                RestrictionPolicy.getInstance(reactContext).invalidate();
                 promise.resolve(true);
             } else {
                 promise.reject("ERROR", "Not device owner or admin inactive");
@@ -323,8 +325,12 @@ public class DeviceLockModule extends ReactContextBaseJavaModule {
     public void grantAllPermissions(Promise promise) {
         try {
             if (lockManager != null && isDeviceOwner()) {
-                lockManager.grantAllPermissions();
-                promise.resolve(true);
+                // Resolves with the permissions this call actually granted
+                WritableArray applied = Arguments.createArray();
+                for (String permission : lockManager.grantAllPermissions()) {
+                    applied.pushString(permission);
+                }
+                promise.resolve(applied);
             } else {
                 promise.reject("ERROR", "Not device owner");
             }
@@ -357,7 +363,7 @@ public class DeviceLockModule extends ReactContextBaseJavaModule {
     public void startPowerAlarm(Promise promise) {
         try {
             if (lockManager != null) {
-                lockManager.startPowerButtonAlarm();
+                EnforcementActor.getInstance(reactContext).startAlarm("app");
                 promise.resolve(true);
             } else {
                 promise.reject("ERROR", "Lock manager unavailable");
@@ -374,7 +380,7 @@ public class DeviceLockModule extends ReactContextBaseJavaModule {
     public void stopPowerAlarm(Promise promise) {
         try {
             if (lockManager != null) {
-                lockManager.stopPowerButtonAlarm();
+                EnforcementActor.getInstance(reactContext).stopAlarm("app");
                 promise.resolve(true);
             } else {
                 promise.reject("ERROR", "Lock manager unavailable");
@@ -392,6 +398,8 @@ public class DeviceLockModule extends ReactContextBaseJavaModule {
         try {
             if (lockManager != null) {
                 lockManager.setLockInfo(message, phone);
+                // Redraw the lock wallpaper off the UI thread
+                new Thread(LockWallpaperRenderer.getInstance(reactContext)::refresh).start();
                 promise.resolve(true);
             } else {
                 promise.reject("ERROR", "Lock manager unavailable");
@@ -899,6 +907,7 @@ public class DeviceLockModule extends ReactContextBaseJavaModule {
                     // If this fails, we cannot proceed with clean unenrollment without factory
                     // reset
                     devicePolicyManager.clearDeviceOwnerApp(reactContext.getPackageName());
+                    FullDeviceLockManager.getInstance(reactContext).refreshOwnerState();
                 } catch (SecurityException e) {
                     // If we can't clear DO, we can't uninstall ourselves silently as DO
                 } catch (Exception e) {
@@ -1018,23 +1027,26 @@ public class DeviceLockModule extends ReactContextBaseJavaModule {
 
             new Thread(() -> {
                 try {
-                    java.net.URL url = new java.net.URL(urlString);
                     java.io.File file = new java.io.File(reactContext.getExternalCacheDir(), "update.apk");
                     if (file.exists())
                         file.delete();
 
-                    java.net.HttpURLConnection connection = (java.net.HttpURLConnection) url.openConnection();
-                    connection.connect();
-                    java.io.InputStream input = new java.io.BufferedInputStream(url.openStream());
-                    java.io.FileOutputStream output = new java.io.FileOutputStream(file);
+                    okhttp3.Request request = new okhttp3.Request.Builder().url(urlString).build();
+                    try (okhttp3.Response response = HttpClientProvider.forDownloads().newCall(request).execute()) {
+                        if (!response.isSuccessful() || response.body() == null) {
+                            promise.reject("ERROR", "Download failed: HTTP " + response.code());
+                            return;
+                        }
+                        java.io.InputStream input = response.body().byteStream();
+                        java.io.FileOutputStream output = new java.io.FileOutputStream(file);
 
-                    byte[] dlBuffer = new byte[65536];
-                    int dlC;
-                    while ((dlC = input.read(dlBuffer)) != -1) {
-                        output.write(dlBuffer, 0, dlC);
+                        byte[] dlBuffer = new byte[65536];
+                        int dlC;
+                        while ((dlC = input.read(dlBuffer)) != -1) {
+                            output.write(dlBuffer, 0, dlC);
+                        }
+                        output.close();
                     }
-                    output.close();
-                    input.close();
 
                     android.content.pm.PackageInstaller packageInstaller = reactContext.getPackageManager()
                             .getPackageInstaller();
@@ -1086,6 +1098,39 @@ public class DeviceLockModule extends ReactContextBaseJavaModule {
         }
     }
 
+    /**
+     * Get native performance metrics (heartbeat, enforcement, storage)
+     */
+    @ReactMethod
+    public void getMetrics(Promise promise) {
+        try {
+            promise.resolve(jsonToMap(EmiMetrics.snapshot()));
+        } catch (Exception e) {
+            promise.reject("ERROR", e.getMessage());
+        }
+    }
+
+    private static WritableMap jsonToMap(org.json.JSONObject json) throws org.json.JSONException {
+        WritableMap map = Arguments.createMap();
+        java.util.Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = json.get(key);
+            if (value instanceof org.json.JSONObject) {
+                map.putMap(key, jsonToMap((org.json.JSONObject) value));
+            } else if (value instanceof Boolean) {
+                map.putBoolean(key, (Boolean) value);
+            } else if (value instanceof Number) {
+                map.putDouble(key, ((Number) value).doubleValue());
+            } else if (value == org.json.JSONObject.NULL) {
+                map.putNull(key);
+            } else {
+                map.putString(key, value.toString());
+            }
+        }
+        return map;
+    }
+
     @ReactMethod
     public void getLastLocation(Promise promise) {
         try {
@@ -0,0 +1,145 @@
+package com.securefinance.emilock;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * EmiMetrics - Process-wide counters, gauges and timers
+ *
+ * Features:
+ * - Lock-free counters and gauges keyed by name (e.g. "heartbeat.inflight")
+ * - Timers keep count / total / max / last duration in milliseconds
+ *   and a fixed-bucket histogram (bounds in BUCKET_BOUNDS_MS, last bucket is overflow)
+ * - snapshot() returns everything as JSON for the RN bridge and server sync
+ */
+public final class EmiMetrics {
+
+    // Upper bounds (inclusive) of the timer histogram buckets
+    static final long[] BUCKET_BOUNDS_MS = { 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000 };
+
+    private static final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private static final Map<String, AtomicLong> gauges = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    private EmiMetrics() {
+    }
+
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    public static void add(String name, long delta) {
+        counter(name).addAndGet(delta);
+    }
+
+    public static long getCounter(String name) {
+        AtomicLong value = counters.get(name);
+        return value != null ? value.get() : 0;
+    }
+
+    public static void setGauge(String name, long value) {
+        gauge(name).set(value);
+    }
+
+    public static long addGauge(String name, long delta) {
+        return gauge(name).addAndGet(delta);
+    }
+
+    public static void recordDuration(String name, long millis) {
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            timers.putIfAbsent(name, new Timer());
+            timer = timers.get(name);
+        }
+        timer.record(millis);
+    }
+
+    /**
+     * All metrics as { counters: {...}, gauges: {...}, bucketBoundsMs: [...],
+     * timers: { name: {count,totalMs,maxMs,lastMs,buckets:[...]} } }
+     */
+    public static JSONObject snapshot() {
+        JSONObject root = new JSONObject();
+        try {
+            JSONObject c = new JSONObject();
+            for (Map.Entry<String, AtomicLong> e : counters.entrySet()) {
+                c.put(e.getKey(), e.getValue().get());
+            }
+            JSONObject g = new JSONObject();
+            for (Map.Entry<String, AtomicLong> e : gauges.entrySet()) {
+                g.put(e.getKey(), e.getValue().get());
+            }
+            JSONObject t = new JSONObject();
+            for (Map.Entry<String, Timer> e : timers.entrySet()) {
+                t.put(e.getKey(), e.getValue().toJson());
+            }
+            root.put("counters", c);
+            root.put("gauges", g);
+            root.put("timers", t);
+            JSONArray bounds = new JSONArray();
+            for (long bound : BUCKET_BOUNDS_MS) {
+                bounds.put(bound);
+            }
+            root.put("bucketBoundsMs", bounds);
+        } catch (Exception e) {
+            // JSONObject.put only throws for non-finite numbers
+        }
+        return root;
+    }
+
+    private static AtomicLong counter(String name) {
+        AtomicLong value = counters.get(name);
+        if (value == null) {
+            counters.putIfAbsent(name, new AtomicLong());
+            value = counters.get(name);
+        }
+        return value;
+    }
+
+    private static AtomicLong gauge(String name) {
+        AtomicLong value = gauges.get(name);
+        if (value == null) {
+            gauges.putIfAbsent(name, new AtomicLong());
+            value = gauges.get(name);
+        }
+        return value;
+    }
+
+    private static final class Timer {
+        private long count;
+        private long totalMs;
+        private long maxMs;
+        private long lastMs;
+        private final long[] buckets = new long[BUCKET_BOUNDS_MS.length + 1];
+
+        synchronized void record(long millis) {
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MS.length && millis > BUCKET_BOUNDS_MS[bucket])
+                bucket++;
+            buckets[bucket]++;
+            count++;
+            totalMs += millis;
+            lastMs = millis;
+            if (millis > maxMs)
+                maxMs = millis;
+        }
+
+        synchronized JSONObject toJson() throws Exception {
+            JSONObject json = new JSONObject();
+            json.put("count", count);
+            json.put("totalMs", totalMs);
+            json.put("maxMs", maxMs);
+            json.put("lastMs", lastMs);
+            JSONArray histogram = new JSONArray();
+            for (long n : buckets) {
+                histogram.put(n);
+            }
+            json.put("buckets", histogram);
+            return json;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.securefinance.emilock;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * EndpointSelector - Ranks backend endpoints by health and latency
+ *
+ * Features:
+ * - Ordered endpoint list from provisioning extras (SERVER_URLS) or remote config
+ * - EWMA latency per endpoint from real requests and /health probes
+ * - Automatic failover after consecutive failures, with a cool-down before retrying the endpoint
+ * - Latency percentile of the active endpoint, used to decide when to hedge a request
+ * - Selection decisions exposed as metrics (endpoint.*)
+ *
+ * SERVER_URL stays the primary; SERVER_URLS is a comma-separated list of alternates.
+ */
+public class EndpointSelector {
+
+    private static final String TAG = "EMI_Endpoints";
+    private static final String PREFS_NAME = "PhoneLockPrefs";
+    public static final String KEY_SERVER_URLS = "SERVER_URLS";
+
+    private static final double EWMA_ALPHA = 0.3;
+    // Another endpoint has to be clearly faster before we leave the preferred one
+    private static final double SWITCH_MARGIN = 0.7;
+    private static final int FAILURES_BEFORE_DOWN = 2;
+    private static final long MIN_COOL_DOWN = 30 * 1000;
+    private static final long MAX_COOL_DOWN = 10 * 60 * 1000;
+    private static final long PROBE_INTERVAL = 30 * 60 * 1000;
+    private static final int LATENCY_WINDOW = 32;
+    // Never hedge faster than this, whatever the percentile says
+    private static final long MIN_HEDGE_DELAY = 1000;
+
+    private static EndpointSelector instance;
+
+    private final SharedPreferences prefs;
+    private final OkHttpClient probeClient;
+
+    private String configKey;
+    private List<Endpoint> endpoints = new ArrayList<>();
+    private Endpoint active;
+    private long lastProbeAt = 0;
+
+    private static final class Endpoint {
+        final String baseUrl;
+        final int order;
+        double ewmaMs = -1;
+        int failures = 0;
+        long downUntil = 0;
+        final long[] latencies = new long[LATENCY_WINDOW];
+        int latencyCount = 0;
+
+        Endpoint(String baseUrl, int order) {
+            this.baseUrl = baseUrl;
+            this.order = order;
+        }
+
+        boolean isUp(long now) {
+            return now >= downUntil;
+        }
+    }
+
+    private EndpointSelector(Context context) {
+        this.prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.probeClient = HttpClientProvider.get().newBuilder()
+                .connectTimeout(5, TimeUnit.SECONDS)
+                .callTimeout(8, TimeUnit.SECONDS)
+                .build();
+    }
+
+    public static synchronized EndpointSelector getInstance(Context context) {
+        if (instance == null) {
+            instance = new EndpointSelector(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Base URL to use right now (no trailing slash)
+     */
+    public synchronized String current() {
+        reloadIfChanged();
+        return active.baseUrl;
+    }
+
+    /**
+     * Best healthy endpoint other than the active one, or null (used for hedging)
+     */
+    public synchronized String alternate() {
+        reloadIfChanged();
+        long now = SystemClock.elapsedRealtime();
+        Endpoint best = null;
+        for (Endpoint e : endpoints) {
+            if (e == active || !e.isUp(now))
+                continue;
+            if (best == null || rank(e) < rank(best))
+                best = e;
+        }
+        return best != null ? best.baseUrl : null;
+    }
+
+    /**
+     * How long to wait for the active endpoint before hedging: ~p90 of its recent latencies
+     */
+    public synchronized long hedgeDelayMs() {
+        reloadIfChanged();
+        Endpoint e = active;
+        if (e.latencyCount < 8)
+            return -1; // Not enough samples to know what "slow" is
+        int n = Math.min(e.latencyCount, LATENCY_WINDOW);
+        long[] sorted = Arrays.copyOf(e.latencies, n);
+        Arrays.sort(sorted);
+        return Math.max(MIN_HEDGE_DELAY, sorted[(int) (n * 0.9) - 1]);
+    }
+
+    public synchronized void recordSuccess(String baseUrl, long latencyMs) {
+        Endpoint e = find(baseUrl);
+        if (e == null)
+            return;
+        e.failures = 0;
+        e.downUntil = 0;
+        e.ewmaMs = e.ewmaMs < 0 ? latencyMs : EWMA_ALPHA * latencyMs + (1 - EWMA_ALPHA) * e.ewmaMs;
+        e.latencies[e.latencyCount % LATENCY_WINDOW] = latencyMs;
+        e.latencyCount++;
+        EmiMetrics.recordDuration("endpoint." + e.order + ".latencyMs", latencyMs);
+        select("latency");
+    }
+
+    public synchronized void recordFailure(String baseUrl) {
+        Endpoint e = find(baseUrl);
+        if (e == null)
+            return;
+        e.failures++;
+        EmiMetrics.increment("endpoint." + e.order + ".failures");
+        if (e.failures >= FAILURES_BEFORE_DOWN) {
+            long coolDown = Math.min(MIN_COOL_DOWN << Math.min(e.failures - FAILURES_BEFORE_DOWN, 5),
+                    MAX_COOL_DOWN);
+            e.downUntil = SystemClock.elapsedRealtime() + coolDown;
+            Log.w(TAG, "Endpoint down for " + coolDown / 1000 + "s: " + e.baseUrl);
+            if (e == active) {
+                select("failover");
+                probeIfDue(true);
+            }
+        }
+    }
+
+    /**
+     * Replace the alternates from remote config (primary SERVER_URL is kept first)
+     */
+    public synchronized void updateAlternates(List<String> urls) {
+        StringBuilder joined = new StringBuilder();
+        for (String url : urls) {
+            if (url == null || url.trim().isEmpty())
+                continue;
+            if (joined.length() > 0)
+                joined.append(',');
+            joined.append(url.trim());
+        }
+        String value = joined.toString();
+        if (value.equals(prefs.getString(KEY_SERVER_URLS, ""))) {
+            return;
+        }
+        prefs.edit().putString(KEY_SERVER_URLS, value).apply();
+        Log.i(TAG, "Alternate endpoints updated: " + value);
+        reload(prefs.getString("SERVER_URL", null), value);
+    }
+
+    /**
+     * Probe every endpoint's /health so idle alternates keep fresh latency numbers
+     */
+    public synchronized void probeIfDue(boolean force) {
+        long now = SystemClock.elapsedRealtime();
+        // Forced probes (failover) are still spaced out, so failing probes can't trigger each other
+        long minGap = force ? MIN_COOL_DOWN : PROBE_INTERVAL;
+        if (endpoints.size() < 2 || (lastProbeAt > 0 && now - lastProbeAt < minGap))
+            return;
+        lastProbeAt = now;
+        for (Endpoint e : endpoints) {
+            final String baseUrl = e.baseUrl;
+            final long startedAt = SystemClock.elapsedRealtime();
+            probeClient.newCall(new Request.Builder().url(baseUrl + "/health").build())
+                    .enqueue(new Callback() {
+                        @Override
+                        public void onFailure(Call call, IOException ex) {
+                            recordFailure(baseUrl);
+                        }
+
+                        @Override
+                        public void onResponse(Call call, Response response) {
+                            try (Response r = response) {
+                                if (r.isSuccessful()) {
+                                    recordSuccess(baseUrl, SystemClock.elapsedRealtime() - startedAt);
+                                } else {
+                                    recordFailure(baseUrl);
+                                }
+                            }
+                        }
+                    });
+        }
+        EmiMetrics.increment("endpoint.probes");
+    }
+
+    // Lower is better: EWMA latency, unknown latency ranks by list order behind measured ones
+    private double rank(Endpoint e) {
+        return e.ewmaMs < 0 ? Double.MAX_VALUE / 2 + e.order : e.ewmaMs;
+    }
+
+    private void select(String reason) {
+        long now = SystemClock.elapsedRealtime();
+        Endpoint best = null;
+        for (Endpoint e : endpoints) {
+            if (!e.isUp(now))
+                continue;
+            if (best == null) {
+                best = e;
+            } else if (rank(e) < rank(best) * SWITCH_MARGIN) {
+                // List is in preference order - a later entry has to be clearly faster
+                best = e;
+            }
+        }
+        if (best == null) {
+            // Everything is cooling down - stay on the preferred endpoint rather than none
+            best = endpoints.get(0);
+        }
+        if (best != active) {
+            Log.i(TAG, "🔀 Endpoint " + (active != null ? active.baseUrl : "none") + " -> " + best.baseUrl
+                    + " (" + reason + ")");
+            if (active != null) {
+                EmiMetrics.increment("endpoint.switches." + reason);
+            }
+            active = best;
+        }
+        EmiMetrics.setGauge("endpoint.activeIndex", active.order);
+    }
+
+    private Endpoint find(String baseUrl) {
+        for (Endpoint e : endpoints) {
+            if (e.baseUrl.equals(baseUrl))
+                return e;
+        }
+        return null;
+    }
+
+    private void reloadIfChanged() {
+        String primary = prefs.getString("SERVER_URL", null);
+        String alternates = prefs.getString(KEY_SERVER_URLS, "");
+        if (active == null || !(primary + "|" + alternates).equals(configKey)) {
+            reload(primary, alternates);
+        }
+    }
+
+    private void reload(String primary, String alternates) {
+        configKey = primary + "|" + alternates;
+        List<Endpoint> next = new ArrayList<>();
+        List<String> urls = new ArrayList<>();
+        urls.add(ServerConfig.normalize(primary));
+        if (alternates != null) {
+            for (String url : alternates.split(",")) {
+                if (!url.trim().isEmpty())
+                    urls.add(ServerConfig.normalize(url.trim()));
+            }
+        }
+        for (String url : urls) {
+            if (find(next, url) != null)
+                continue;
+            // Keep what we learned about endpoints that survive the reload
+            Endpoint old = find(url);
+            Endpoint e = new Endpoint(url, next.size());
+            if (old != null) {
+                e.ewmaMs = old.ewmaMs;
+                e.failures = old.failures;
+                e.downUntil = old.downUntil;
+            }
+            next.add(e);
+        }
+        endpoints = next;
+        active = null;
+        select("config");
+        EmiMetrics.setGauge("endpoint.count", endpoints.size());
+    }
+
+    private static Endpoint find(List<Endpoint> list, String baseUrl) {
+        for (Endpoint e : list) {
+            if (e.baseUrl.equals(baseUrl))
+                return e;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,254 @@
+package com.securefinance.emilock;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * EnforcementActor - The only place lock and unlock actually run
+ *
+ * Features:
+ * - One dedicated thread, so a lock and an unlock can never interleave half-applied
+ * - Coalescing mailbox: one slot per command family, the latest request wins
+ *   (ten locks run once, lock then unlock runs only the unlock)
+ * - Heartbeat/push decisions go through LockStateController (no-op when nothing changed);
+ *   explicit commands (SMS, SIM change, boot, admin UI) force the full sequence
+ * - Queue depth, coalesced count and per-command latency in EmiMetrics
+ * - After a lock the device reports itself (SIM change, safe mode, SMS), server "unlocked"
+ *   answers are held back until the server acknowledges that report id: until then it
+ *   simply hasn't seen the lock
+ * - Alarm commands skip the mailbox and go straight to AlarmEngine's audio thread,
+ *   so a ringing alarm never waits behind a lock sequence
+ *
+ * Callers on any thread just submit and return.
+ */
+public class EnforcementActor {
+
+    private static final String TAG = "EMI_Enforcer";
+    private static final String PREFS_NAME = "PhoneLockPrefs";
+    private static final String KEY_LOCAL_LOCK_REPORTS = "LOCAL_LOCK_REPORTS";
+    private static final String KEY_LOCAL_LOCK_HOLD_SINCE = "LOCAL_LOCK_HOLD_SINCE";
+    // Upper bound on holding server unlocks back - a report the server never acknowledges
+    private static final long LOCAL_LOCK_HOLD_MAX_MS = 30 * 60 * 1000L;
+
+    private static EnforcementActor instance;
+
+    private final Context context;
+    private final Handler handler;
+    private final Runnable drainRunnable = this::drain;
+
+    // Mailbox - guarded by this
+    private Boolean pendingLocked;
+    private boolean pendingForce;
+    private String pendingLockSource;
+    private long pendingLockSince;
+    private int pendingRequests;
+    private boolean drainScheduled;
+
+    // Reports about local locks the server hasn't acknowledged yet, and when the hold began
+    // (device clock only) - guarded by this
+    private final Set<String> unackedLockReports = new HashSet<>();
+    private long holdSince;
+
+    private EnforcementActor(Context context) {
+        this.context = context.getApplicationContext();
+        SharedPreferences prefs = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        unackedLockReports.addAll(prefs.getStringSet(KEY_LOCAL_LOCK_REPORTS, Collections.<String>emptySet()));
+        holdSince = prefs.getLong(KEY_LOCAL_LOCK_HOLD_SINCE, 0);
+        HandlerThread thread = new HandlerThread("EMI_Enforcer");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    public static synchronized EnforcementActor getInstance(Context context) {
+        if (instance == null) {
+            instance = new EnforcementActor(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Explicit lock command - always runs the full lock sequence
+     */
+    public void lock(String source) {
+        submitLockState(true, source, true);
+    }
+
+    /**
+     * Explicit lock the device decided on itself and reported to the server (SIM change,
+     * safe mode, SMS) - server unlocks are held back until the server acknowledges the report
+     *
+     * @param reportId outbox id of the report, null when it could not be queued
+     */
+    public void lockReported(String source, String reportId) {
+        if (reportId != null) {
+            holdUnlocksFor(reportId);
+        }
+        submitLockState(true, source, true);
+    }
+
+    /**
+     * Explicit unlock command - always runs the full unlock sequence
+     */
+    public void unlock(String source) {
+        releaseHold();
+        submitLockState(false, source, true);
+    }
+
+    /**
+     * Desired state from the server (heartbeat, push, lease) - only acts on a transition or drift
+     */
+    public void reconcile(boolean locked, String source) {
+        if (!locked && isUnlockHeld()) {
+            EmiMetrics.increment("enforcement.staleUnlockHeld");
+            Log.w(TAG, "Ignoring " + source + " unlock - server hasn't acknowledged the local lock yet");
+            return;
+        }
+        submitLockState(locked, source, false);
+    }
+
+    /**
+     * The server applied these reports; its state now includes the locks they describe
+     * (called before the same response's lock state is reconciled)
+     */
+    public synchronized void onReportsAcknowledged(Collection<String> ids) {
+        if (unackedLockReports.removeAll(ids)) {
+            if (unackedLockReports.isEmpty()) {
+                holdSince = 0;
+            }
+            persistHold();
+        }
+    }
+
+    private synchronized boolean isUnlockHeld() {
+        if (unackedLockReports.isEmpty())
+            return false;
+        long held = System.currentTimeMillis() - holdSince;
+        if (held < 0 || held > LOCAL_LOCK_HOLD_MAX_MS) {
+            // Report never acknowledged (or the clock jumped) - the server is authoritative again
+            Log.w(TAG, "Releasing unlock hold after " + held + " ms without an ack");
+            releaseHold();
+            return false;
+        }
+        return true;
+    }
+
+    private synchronized void holdUnlocksFor(String reportId) {
+        if (unackedLockReports.isEmpty()) {
+            holdSince = System.currentTimeMillis();
+        }
+        unackedLockReports.add(reportId);
+        persistHold();
+    }
+
+    private synchronized void releaseHold() {
+        if (unackedLockReports.isEmpty())
+            return;
+        unackedLockReports.clear();
+        holdSince = 0;
+        persistHold();
+    }
+
+    private void persistHold() {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putStringSet(KEY_LOCAL_LOCK_REPORTS, new HashSet<>(unackedLockReports))
+                .putLong(KEY_LOCAL_LOCK_HOLD_SINCE, holdSince)
+                .apply();
+    }
+
+    /**
+     * After a restart: finish a transition the process died in, otherwise only
+     * verify the persisted state (DPM policy survives a reboot - no full re-run)
+     */
+    public void resume(String source) {
+        Boolean unfinished = LockJournal.getInstance(context).unfinishedTarget();
+        boolean locked = unfinished != null ? unfinished
+                : FullDeviceLockManager.getInstance(context).isDeviceLocked();
+        if (locked) {
+            AlarmEngine.getInstance(context).preload();
+        }
+        submitLockState(locked, source, unfinished != null);
+    }
+
+    public void startAlarm(String source) {
+        AlarmEngine.getInstance(context).start(source);
+    }
+
+    public void stopAlarm(String source) {
+        Log.d(TAG, "Alarm stop requested by " + source);
+        AlarmEngine.getInstance(context).stop();
+    }
+
+    private synchronized void submitLockState(boolean locked, String source, boolean force) {
+        if (pendingLocked == null) {
+            pendingLockSince = SystemClock.elapsedRealtime();
+            pendingForce = force;
+        } else {
+            EmiMetrics.increment("enforcement.coalesced");
+            // A different final state is a new decision; the same one only adds urgency
+            pendingForce = pendingLocked == locked ? pendingForce || force : force;
+        }
+        pendingLocked = locked;
+        pendingLockSource = source;
+        enqueued();
+    }
+
+    private void enqueued() {
+        pendingRequests++;
+        EmiMetrics.increment("enforcement.submitted");
+        EmiMetrics.setGauge("enforcement.queueDepth", pendingRequests);
+        if (!drainScheduled) {
+            drainScheduled = true;
+            handler.post(drainRunnable);
+        }
+    }
+
+    /**
+     * Runs on the actor thread - takes the whole mailbox and executes the final states
+     */
+    private void drain() {
+        Boolean locked;
+        boolean force;
+        String source;
+        long lockSince;
+        synchronized (this) {
+            locked = pendingLocked;
+            force = pendingForce;
+            source = pendingLockSource;
+            lockSince = pendingLockSince;
+            pendingLocked = null;
+            pendingRequests = 0;
+            drainScheduled = false;
+            EmiMetrics.setGauge("enforcement.queueDepth", 0);
+        }
+
+        if (locked != null) {
+            long start = SystemClock.elapsedRealtime();
+            try {
+                LockStateController controller = LockStateController.getInstance(context);
+                if (force) {
+                    controller.enforce(locked, source);
+                } else {
+                    controller.reconcile(locked, source);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Enforcement failed (" + source + ")", e);
+            }
+            record(locked ? "lock" : "unlock", lockSince, start);
+        }
+    }
+
+    private void record(String command, long enqueuedAt, long startedAt) {
+        long now = SystemClock.elapsedRealtime();
+        EmiMetrics.recordDuration("enforcement." + command + ".latencyMs", now - enqueuedAt);
+        EmiMetrics.recordDuration("enforcement." + command + ".execMs", now - startedAt);
+    }
+}
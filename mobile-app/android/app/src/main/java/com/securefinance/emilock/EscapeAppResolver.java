@@ -0,0 +1,239 @@
+package com.securefinance.emilock;
+
+import android.app.admin.DevicePolicyManager;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * EscapeAppResolver - Finds and hides the apps a locked user could escape through
+ *
+ * Features:
+ * - Resolves home launchers, settings, app stores, browsers, dialers and messaging apps
+ *   through PackageManager queries, so OEM packages are covered, not just AOSP names
+ * - Caches the result; package add/remove/replace broadcasts invalidate it
+ * - Persists the set actually hidden; unhide reverses exactly that set in one pass,
+ *   without querying PackageManager again
+ * - Hiding only touches packages not already hidden by a previous lock
+ */
+public class EscapeAppResolver {
+
+    private static final String TAG = "EMI_EscapeApps";
+
+    private static final String PREFS_NAME = "PhoneLockPrefs";
+    private static final String KEY_HIDDEN = "HIDDEN_ESCAPE_APPS";
+
+    // Always treated as escape routes when installed (previous hardcoded list)
+    private static final List<String> SEED_PACKAGES = Arrays.asList(
+            "com.android.settings",
+            "com.android.vending",
+            "com.google.android.youtube",
+            "com.android.chrome",
+            "com.google.android.apps.messaging",
+            "com.android.dialer");
+
+    // Hiding these breaks the device itself
+    private static final List<String> NEVER_HIDE = Arrays.asList(
+            "android",
+            "com.android.systemui",
+            "com.android.phone",
+            "com.android.providers.settings");
+
+    private static EscapeAppResolver instance;
+
+    private final Context context;
+    private final DevicePolicyManager dpm;
+    private final ComponentName adminComponent;
+    private final SharedPreferences prefs;
+
+    // Resolved escape packages - null until first resolve() or after a package change
+    private Set<String> cached;
+
+    private EscapeAppResolver(Context context) {
+        this.context = context.getApplicationContext();
+        this.dpm = (DevicePolicyManager) this.context.getSystemService(Context.DEVICE_POLICY_SERVICE);
+        this.adminComponent = new ComponentName(this.context, DeviceAdminReceiver.class);
+        this.prefs = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+
+        // Package broadcasts are not delivered to manifest receivers on Android 8+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        this.context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context ctx, Intent intent) {
+                onPackagesChanged(intent);
+            }
+        }, filter);
+    }
+
+    public static synchronized EscapeAppResolver getInstance(Context context) {
+        if (instance == null) {
+            instance = new EscapeAppResolver(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Hide every escape app (lock) or show exactly the ones we hid (unlock)
+     */
+    public synchronized void setHidden(boolean hidden) {
+        if (hidden) {
+            hideAll();
+        } else {
+            unhideAll();
+        }
+    }
+
+    private void hideAll() {
+        Set<String> alreadyHidden = readHidden();
+        Set<String> targets = new HashSet<>(resolve());
+        targets.removeAll(alreadyHidden);
+        if (targets.isEmpty()) {
+            EmiMetrics.increment("escapeApps.hideSkipped");
+            return;
+        }
+
+        // Record first - a crash mid-pass must still leave unlock a complete list
+        Set<String> recorded = new HashSet<>(alreadyHidden);
+        recorded.addAll(targets);
+        prefs.edit().putStringSet(KEY_HIDDEN, recorded).commit();
+
+        int count = 0;
+        for (String pkg : targets) {
+            if (setPackageHidden(pkg, true))
+                count++;
+        }
+        EmiMetrics.add("escapeApps.binderCalls", targets.size());
+        EmiMetrics.setGauge("escapeApps.hidden", recorded.size());
+        Log.i(TAG, "Hid " + count + " escape apps (" + recorded.size() + " hidden in total)");
+    }
+
+    private void unhideAll() {
+        Set<String> hidden = prefs.contains(KEY_HIDDEN)
+                ? readHidden()
+                : new HashSet<>(SEED_PACKAGES); // Locked by a build that didn't record the set
+
+        if (hidden.isEmpty())
+            return;
+
+        for (String pkg : hidden) {
+            setPackageHidden(pkg, false);
+        }
+        prefs.edit().putStringSet(KEY_HIDDEN, Collections.<String>emptySet()).apply();
+        EmiMetrics.add("escapeApps.binderCalls", hidden.size());
+        EmiMetrics.setGauge("escapeApps.hidden", 0);
+        Log.i(TAG, "Restored " + hidden.size() + " escape apps");
+    }
+
+    /**
+     * Escape packages installed right now (cached)
+     */
+    public synchronized Set<String> resolve() {
+        if (cached != null)
+            return cached;
+
+        long start = SystemClock.elapsedRealtime();
+        PackageManager pm = context.getPackageManager();
+        Set<String> found = new HashSet<>();
+
+        // Home launchers other than ours
+        collect(pm, new Intent(Intent.ACTION_MAIN).addCategory(Intent.CATEGORY_HOME), found);
+        // Settings screens (OEMs ship their own settings packages)
+        collect(pm, new Intent(Settings.ACTION_SETTINGS), found);
+        collect(pm, new Intent(Settings.ACTION_WIRELESS_SETTINGS), found);
+        collect(pm, new Intent(Settings.ACTION_APPLICATION_SETTINGS), found);
+        collect(pm, new Intent(Settings.ACTION_SECURITY_SETTINGS), found);
+        // App stores, browsers, dialers and messaging
+        collect(pm, new Intent(Intent.ACTION_VIEW, Uri.parse("market://details?id=" + context.getPackageName())), found);
+        collect(pm, new Intent(Intent.ACTION_VIEW, Uri.parse("https://example.com")), found);
+        collect(pm, new Intent(Intent.ACTION_DIAL), found);
+        collect(pm, new Intent(Intent.ACTION_SENDTO, Uri.parse("smsto:")), found);
+
+        for (String pkg : SEED_PACKAGES) {
+            if (isInstalled(pm, pkg))
+                found.add(pkg);
+        }
+
+        found.remove(context.getPackageName());
+        found.removeAll(NEVER_HIDE);
+
+        cached = Collections.unmodifiableSet(found);
+        EmiMetrics.recordDuration("escapeApps.resolveMs", SystemClock.elapsedRealtime() - start);
+        Log.d(TAG, "Resolved " + found.size() + " escape apps: " + found);
+        return cached;
+    }
+
+    private void collect(PackageManager pm, Intent intent, Set<String> out) {
+        try {
+            List<ResolveInfo> matches = pm.queryIntentActivities(intent, PackageManager.MATCH_ALL);
+            for (ResolveInfo info : matches) {
+                if (info.activityInfo != null) {
+                    out.add(info.activityInfo.packageName);
+                }
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Query failed for " + intent.getAction() + ": " + e.getMessage());
+        }
+    }
+
+    private boolean isInstalled(PackageManager pm, String pkg) {
+        try {
+            pm.getPackageInfo(pkg, 0);
+            return true;
+        } catch (PackageManager.NameNotFoundException e) {
+            return false;
+        }
+    }
+
+    private boolean setPackageHidden(String pkg, boolean hidden) {
+        try {
+            return dpm.setApplicationHidden(adminComponent, pkg, hidden);
+        } catch (Exception e) {
+            Log.w(TAG, "Could not " + (hidden ? "hide " : "unhide ") + pkg + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private Set<String> readHidden() {
+        // getStringSet's result must not be modified - copy it
+        return new HashSet<>(prefs.getStringSet(KEY_HIDDEN, Collections.<String>emptySet()));
+    }
+
+    private synchronized void onPackagesChanged(Intent intent) {
+        boolean replacing = intent.getBooleanExtra(Intent.EXTRA_REPLACING, false);
+        if (replacing && !Intent.ACTION_PACKAGE_REPLACED.equals(intent.getAction()))
+            return; // The REPLACED broadcast follows
+        cached = null;
+        EmiMetrics.increment("escapeApps.invalidated");
+
+        // A new escape route installed while locked - close it now instead of at the next lock
+        Uri data = intent.getData();
+        if (Intent.ACTION_PACKAGE_ADDED.equals(intent.getAction()) && data != null
+                && FullDeviceLockManager.getInstance(context).isDeviceLocked()
+                && FullDeviceLockManager.getInstance(context).isDeviceOwner()) {
+            String pkg = data.getSchemeSpecificPart();
+            if (resolve().contains(pkg)) {
+                Log.w(TAG, "New escape app installed while locked: " + pkg);
+                hideAll();
+            }
+        }
+    }
+}
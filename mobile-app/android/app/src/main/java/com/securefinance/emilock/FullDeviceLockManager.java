@@ -1,29 +1,22 @@
 package com.securefinance.emilock;
 
 import android.app.admin.DevicePolicyManager;
-import android.app.WallpaperManager;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.media.AudioManager;
-import android.media.MediaPlayer;
-import android.media.RingtoneManager;
-import android.net.Uri;
 import android.os.Build;
-import android.os.PowerManager;
-import android.os.UserManager;
-import android.os.Vibrator;
-import android.provider.Settings;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.WindowManager;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * FullDeviceLockManager - Complete Device Control System
@@ -36,6 +29,10 @@ import java.net.URL;
  * - PIN management
  * - Permission auto-grant
  * - Full kiosk mode
+ *
+ * One process-wide instance (getInstance): device-owner status is cached and
+ * refreshed from the admin enable/disable callbacks. The alarm lives in AlarmEngine
+ * and wake locks in WakeLockManager, so any caller can stop what another one started.
  */
 public class FullDeviceLockManager {
 
@@ -44,33 +41,69 @@ public class FullDeviceLockManager {
     private static final String KEY_DEVICE_LOCKED = "DEVICE_LOCKED";
     private static final String KEY_LOCK_MESSAGE = "LOCK_MESSAGE";
     private static final String KEY_SUPPORT_PHONE = "SUPPORT_PHONE";
+    private static final String KEY_AMOUNT_DUE = "AMOUNT_DUE";
+    private static final String KEY_LENDER_NAME = "LENDER_NAME";
 
-    private Context context;
-    private DevicePolicyManager dpm;
-    private ComponentName adminComponent;
-    private SharedPreferences prefs;
-    private MediaPlayer alarmPlayer;
-    private Vibrator vibrator;
-    private PowerManager.WakeLock wakeLock;
+    private static FullDeviceLockManager instance;
 
-    public FullDeviceLockManager(Context context) {
+    private final Context context;
+    private final DevicePolicyManager dpm;
+    private final ComponentName adminComponent;
+    private final SharedPreferences prefs;
+    // Runs app hiding alongside the DPM hardening steps during a lock
+    private final ExecutorService hardeningExecutor =
+            Executors.newSingleThreadExecutor(r -> new Thread(r, "EMI_Harden"));
+
+    // Cached dpm.isDeviceOwnerApp() - null until first asked or after refreshOwnerState()
+    private volatile Boolean deviceOwner;
+
+    private FullDeviceLockManager(Context context) {
         this.context = context;
         this.dpm = (DevicePolicyManager) context.getSystemService(Context.DEVICE_POLICY_SERVICE);
         this.adminComponent = new ComponentName(context, DeviceAdminReceiver.class);
         this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        this.vibrator = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
+    }
+
+    public static synchronized FullDeviceLockManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new FullDeviceLockManager(context.getApplicationContext());
+        }
+        return instance;
     }
 
     /**
      * Check if this app is Device Owner
      */
     public boolean isDeviceOwner() {
-        return dpm != null && dpm.isDeviceOwnerApp(context.getPackageName());
+        Boolean owner = deviceOwner;
+        if (owner == null) {
+            owner = dpm != null && dpm.isDeviceOwnerApp(context.getPackageName());
+            deviceOwner = owner;
+        }
+        return owner;
+    }
+
+    /**
+     * Re-read device-owner status (admin enabled/disabled, provisioning, owner cleared)
+     */
+    public boolean refreshOwnerState() {
+        deviceOwner = null;
+        boolean owner = isDeviceOwner();
+        Log.d(TAG, "Device owner: " + owner);
+        return owner;
     }
 
     /**
      * Lock device immediately after provisioning
      * Called automatically on ProfileProvisioningComplete
+     *
+     * Journaled: if the process died part-way through an earlier lock, only the
+     * unfinished steps run (see LockJournal)
+     *
+     * Lock screen early: the state pref and the lock task whitelist (two cheap calls) come
+     * first, because the activity reads the one and calls startLockTask() against the other
+     * as soon as it starts. The activity is then started before the rest of the hardening,
+     * and the independent hardening steps run in parallel. Every step is timed (TransitionTimer).
      */
     public void lockDeviceImmediately() {
         Log.i(TAG, "🔒 LOCKING DEVICE IMMEDIATELY");
@@ -80,29 +113,50 @@ public class FullDeviceLockManager {
             return;
         }
 
+        TransitionTimer timer = new TransitionTimer(context, true);
+        boolean resumed = false;
         try {
-            // 1. Enable Kiosk Mode (Lock Task)
-            enableKioskMode();
-
-            // 2. Apply STRICT security restrictions
-            applyLockedRestrictions();
+            LockJournal journal = LockJournal.getInstance(context);
+            resumed = journal.begin(true);
 
-            // 3. Disable all user interaction
-            disableUserInteraction();
+            // 1. Set lock status - before the activity reads it
+            step(journal, timer, "state", () -> prefs.edit().putBoolean(KEY_DEVICE_LOCKED, true).commit());
 
-            // 4. Hide all other apps
-            setOtherAppsHidden(true);
+            // 2. Enable Kiosk Mode (Lock Task) - without the whitelist the activity's
+            // startLockTask() only gets escapable screen pinning
+            step(journal, timer, "kiosk", this::enableKioskMode);
 
-            // 5. Set lock status
-            prefs.edit().putBoolean(KEY_DEVICE_LOCKED, true).apply();
-
-            // 6. Launch lock screen
+            // 3. Launch lock screen (not journaled - the activity doesn't survive the process)
+            long launchStart = SystemClock.elapsedRealtime();
             launchLockScreen();
-
+            timer.record("launch", launchStart);
+
+            // 4. Hide all other apps - independent of the DPM steps below, runs alongside them
+            Future<?> hiding = hardeningExecutor.submit(
+                    () -> step(journal, timer, "hideApps", () -> setOtherAppsHidden(true)));
+
+            // 5. Apply STRICT security restrictions
+            step(journal, timer, "restrictions", this::applyLockedRestrictions);
+
+            // 6. Disable all user interaction
+            step(journal, timer, "interaction", this::disableUserInteraction);
+
+            try {
+                hiding.get();
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Hiding apps failed", e.getCause());
+                journal.failed("hideApps");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                journal.failed("hideApps");
+            }
+            journal.commit();
             Log.i(TAG, "✅ Device locked successfully");
 
         } catch (Exception e) {
             Log.e(TAG, "Failed to lock device", e);
+        } finally {
+            timer.finish(resumed);
         }
     }
 
@@ -146,24 +200,7 @@ public class FullDeviceLockManager {
         if (!isDeviceOwner())
             return;
 
-        try {
-            // Block Factory Reset
-            dpm.addUserRestriction(adminComponent, UserManager.DISALLOW_FACTORY_RESET);
-
-            // Block Safe Mode
-            dpm.addUserRestriction(adminComponent, UserManager.DISALLOW_SAFE_BOOT);
-
-            // Block uninstalling apps (Admin app)
-            dpm.addUserRestriction(adminComponent, UserManager.DISALLOW_UNINSTALL_APPS);
-
-            // Block removing users
-            dpm.addUserRestriction(adminComponent, UserManager.DISALLOW_REMOVE_USER);
-
-            Log.i(TAG, "Base security restrictions applied (Device Unlocked)");
-
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to apply base restrictions", e);
-        }
+        RestrictionPolicy.getInstance(context).apply(RestrictionPolicy.Profile.BASE);
     }
 
     /**
@@ -174,38 +211,8 @@ public class FullDeviceLockManager {
         if (!isDeviceOwner())
             return;
 
-        try {
-            // Re-apply base just in case
-            applyBaseRestrictions();
-
-            // Block USB file transfer
-            dpm.addUserRestriction(adminComponent, UserManager.DISALLOW_USB_FILE_TRANSFER);
-
-            // Block USB debugging
-            dpm.setGlobalSetting(adminComponent, Settings.Global.ADB_ENABLED, "0");
-
-            // Block adding users
-            dpm.addUserRestriction(adminComponent, UserManager.DISALLOW_ADD_USER);
-
-            // Block config changes
-            dpm.addUserRestriction(adminComponent, UserManager.DISALLOW_CONFIG_WIFI);
-            dpm.addUserRestriction(adminComponent, UserManager.DISALLOW_CONFIG_BLUETOOTH);
-            dpm.addUserRestriction(adminComponent, UserManager.DISALLOW_CONFIG_MOBILE_NETWORKS);
-
-            // Block installing apps
-            dpm.addUserRestriction(adminComponent, UserManager.DISALLOW_INSTALL_APPS);
-
-            // Disable camera
-            dpm.setCameraDisabled(adminComponent, true);
-
-            // Block screen capture
-            dpm.addUserRestriction(adminComponent, UserManager.DISALLOW_SHARE_INTO_MANAGED_PROFILE);
-
-            Log.i(TAG, "Strict/Locked security restrictions applied");
-
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to apply strict restrictions", e);
-        }
+        // Base + strict in one delta - an already locked device costs a single read
+        RestrictionPolicy.getInstance(context).apply(RestrictionPolicy.Profile.LOCKED);
     }
 
     /**
@@ -255,70 +262,18 @@ public class FullDeviceLockManager {
 
     /**
      * Start alarm when power button is pressed (anti-shutdown protection)
+     * Returns immediately - the sound is preloaded and started on the audio thread
      */
     public void startPowerButtonAlarm() {
         Log.i(TAG, "🚨 POWER BUTTON PRESSED - STARTING ALARM");
-
-        try {
-            // 1. Maximum volume
-            AudioManager audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
-            if (audioManager != null) {
-                audioManager.setStreamVolume(AudioManager.STREAM_ALARM,
-                        audioManager.getStreamMaxVolume(AudioManager.STREAM_ALARM), 0);
-                audioManager.setStreamVolume(AudioManager.STREAM_RING,
-                        audioManager.getStreamMaxVolume(AudioManager.STREAM_RING), 0);
-            }
-
-            // 2. Play alarm sound
-            if (alarmPlayer != null) {
-                alarmPlayer.release();
-            }
-
-            Uri alarmUri = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_ALARM);
-            if (alarmUri == null) {
-                alarmUri = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_RINGTONE);
-            }
-
-            alarmPlayer = new MediaPlayer();
-            alarmPlayer.setDataSource(context, alarmUri);
-            alarmPlayer.setAudioStreamType(AudioManager.STREAM_ALARM);
-            alarmPlayer.setLooping(true);
-            alarmPlayer.prepare();
-            alarmPlayer.start();
-
-            // 3. Vibrate continuously
-            if (vibrator != null) {
-                long[] pattern = { 0, 1000, 500, 1000, 500 }; // vibrate pattern
-                vibrator.vibrate(pattern, 0); // repeat from index 0
-            }
-
-            Log.i(TAG, "Alarm started - device protected");
-
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to start alarm", e);
-        }
+        AlarmEngine.getInstance(context).start("lockManager");
     }
 
     /**
      * Stop the power button alarm
      */
     public void stopPowerButtonAlarm() {
-        try {
-            if (alarmPlayer != null) {
-                alarmPlayer.stop();
-                alarmPlayer.release();
-                alarmPlayer = null;
-            }
-
-            if (vibrator != null) {
-                vibrator.cancel();
-            }
-
-            Log.i(TAG, "Alarm stopped");
-
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to stop alarm", e);
-        }
+        AlarmEngine.getInstance(context).stop();
     }
 
     /**
@@ -330,32 +285,8 @@ public class FullDeviceLockManager {
             return false;
         }
 
-        try {
-            // Download image
-            URL url = new URL(imageUrl);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setDoInput(true);
-            connection.connect();
-            InputStream input = connection.getInputStream();
-            Bitmap bitmap = BitmapFactory.decodeStream(input);
-
-            // Set wallpaper
-            WallpaperManager wallpaperManager = WallpaperManager.getInstance(context);
-            wallpaperManager.setBitmap(bitmap);
-
-            // Also set lock screen wallpaper
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-                wallpaperManager.setBitmap(bitmap, null, true,
-                        WallpaperManager.FLAG_LOCK);
-            }
-
-            Log.i(TAG, "Wallpaper set successfully");
-            return true;
-
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to set wallpaper", e);
-            return false;
-        }
+        // Cached, downsampled, applied once for home + lock, skipped when unchanged
+        return WallpaperPipeline.getInstance(context).apply(imageUrl);
     }
 
     /**
@@ -411,40 +342,14 @@ public class FullDeviceLockManager {
     /**
      * Grant all runtime permissions automatically
      */
-    public void grantAllPermissions() {
+    public List<String> grantAllPermissions() {
         if (!isDeviceOwner())
-            return;
-
-        String[] permissions = {
-                "android.permission.READ_PHONE_STATE",
-                "android.permission.READ_SMS",
-                "android.permission.RECEIVE_SMS",
-                "android.permission.CAMERA",
-                "android.permission.ACCESS_FINE_LOCATION",
-                "android.permission.ACCESS_COARSE_LOCATION",
-                "android.permission.READ_CONTACTS",
-                "android.permission.WRITE_CONTACTS",
-                "android.permission.CALL_PHONE",
-                "android.permission.READ_CALL_LOG",
-                "android.permission.WRITE_CALL_LOG",
-                "android.permission.READ_EXTERNAL_STORAGE",
-                "android.permission.WRITE_EXTERNAL_STORAGE"
-        };
-
-        try {
-            for (String permission : permissions) {
-                boolean granted = dpm.setPermissionGrantState(adminComponent,
-                        context.getPackageName(),
-                        permission,
-                        DevicePolicyManager.PERMISSION_GRANT_STATE_GRANTED);
-                Log.d(TAG, "Permission " + permission + " granted: " + granted);
-            }
+            return Collections.emptyList();
 
-            Log.i(TAG, "All permissions granted automatically");
-
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to grant permissions", e);
-        }
+        // Only permissions the manifest declares and that are not granted yet (see PermissionGrants)
+        List<String> applied = PermissionGrants.getInstance(context).ensureGranted();
+        Log.i(TAG, "Permissions granted automatically: " + applied);
+        return applied;
     }
 
     /**
@@ -457,6 +362,16 @@ public class FullDeviceLockManager {
                 .apply();
     }
 
+    /**
+     * Set amount due (whole rupees) and lender name shown on the lock screen
+     */
+    public void setPaymentInfo(long amountDue, String lenderName) {
+        prefs.edit()
+                .putLong(KEY_AMOUNT_DUE, amountDue)
+                .putString(KEY_LENDER_NAME, lenderName)
+                .apply();
+    }
+
     /**
      * Unlock device (admin only)
      */
@@ -468,60 +383,53 @@ public class FullDeviceLockManager {
             return;
         }
 
+        TransitionTimer timer = new TransitionTimer(context, false);
+        boolean resumed = false;
         try {
+            LockJournal journal = LockJournal.getInstance(context);
+            resumed = journal.begin(false);
+
             // 1. Disable kiosk mode
-            dpm.setLockTaskPackages(adminComponent, new String[] {});
+            step(journal, timer, "kiosk", () -> dpm.setLockTaskPackages(adminComponent, new String[] {}));
 
             // 2. Enable status bar
-            dpm.setStatusBarDisabled(adminComponent, false);
+            step(journal, timer, "statusBar", () -> dpm.setStatusBarDisabled(adminComponent, false));
 
             // 3. Show other apps again
-            setOtherAppsHidden(false);
+            step(journal, timer, "showApps", () -> setOtherAppsHidden(false));
 
             // 4. Revert to Base Restrictions (Clear strict ones)
-            clearStrictRestrictions();
-            applyBaseRestrictions();
+            step(journal, timer, "restrictions",
+                    () -> RestrictionPolicy.getInstance(context).apply(RestrictionPolicy.Profile.UNLOCKED));
 
             // 5. Set lock status
-            prefs.edit().putBoolean(KEY_DEVICE_LOCKED, false).apply();
+            step(journal, timer, "state", () -> prefs.edit().putBoolean(KEY_DEVICE_LOCKED, false).commit());
 
             // 6. Stop any alarms
             stopPowerButtonAlarm();
 
+            journal.commit();
             Log.i(TAG, "✅ Device unlocked successfully");
 
         } catch (Exception e) {
             Log.e(TAG, "Failed to unlock device", e);
+        } finally {
+            timer.finish(resumed);
         }
     }
 
     /**
-     * Clear strict restrictions (called during unlock)
+     * Run one durable step of a transition unless the journal says it already happened
      */
-
-    private void clearStrictRestrictions() {
-        if (!isDeviceOwner())
+    private void step(LockJournal journal, TransitionTimer timer, String name, Runnable action) {
+        if (journal.isDone(name)) {
+            Log.d(TAG, "Step " + name + " already done - skipping");
             return;
-
-        try {
-            dpm.clearUserRestriction(adminComponent, UserManager.DISALLOW_USB_FILE_TRANSFER);
-            dpm.clearUserRestriction(adminComponent, UserManager.DISALLOW_ADD_USER);
-            dpm.clearUserRestriction(adminComponent, UserManager.DISALLOW_CONFIG_WIFI);
-            dpm.clearUserRestriction(adminComponent, UserManager.DISALLOW_CONFIG_BLUETOOTH);
-            dpm.clearUserRestriction(adminComponent, UserManager.DISALLOW_CONFIG_MOBILE_NETWORKS);
-            dpm.clearUserRestriction(adminComponent, UserManager.DISALLOW_INSTALL_APPS);
-            dpm.clearUserRestriction(adminComponent, UserManager.DISALLOW_SHARE_INTO_MANAGED_PROFILE);
-            dpm.setCameraDisabled(adminComponent, false);
-
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
-                dpm.clearUserRestriction(adminComponent, UserManager.DISALLOW_OUTGOING_CALLS);
-            }
-            dpm.clearUserRestriction(adminComponent, UserManager.DISALLOW_SMS);
-
-            Log.i(TAG, "Strict restrictions cleared");
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to clear strict restrictions", e);
         }
+        long start = SystemClock.elapsedRealtime();
+        action.run();
+        journal.done(name);
+        timer.record(name, start);
     }
 
     /**
@@ -546,6 +454,20 @@ public class FullDeviceLockManager {
         return prefs.getString(KEY_SUPPORT_PHONE, "8876655444");
     }
 
+    /**
+     * Get amount due in whole rupees (0 = unknown)
+     */
+    public long getAmountDue() {
+        return prefs.getLong(KEY_AMOUNT_DUE, 0);
+    }
+
+    /**
+     * Get lender name (null = not sent by the server)
+     */
+    public String getLenderName() {
+        return prefs.getString(KEY_LENDER_NAME, null);
+    }
+
     /**
      * Check if kiosk mode is active
      */
@@ -561,20 +483,10 @@ public class FullDeviceLockManager {
     }
 
     /**
-     * Acquire wake lock to keep device awake
+     * Wake the screen and keep it on for up to 10 minutes - release the handle when done
      */
-    public void acquireWakeLock() {
-        try {
-            PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
-            wakeLock = pm.newWakeLock(
-                    PowerManager.FULL_WAKE_LOCK |
-                            PowerManager.ACQUIRE_CAUSES_WAKEUP |
-                            PowerManager.ON_AFTER_RELEASE,
-                    "EMILock:WakeLock");
-            wakeLock.acquire(10 * 60 * 1000L); // 10 minutes
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to acquire wake lock", e);
-        }
+    public WakeLockManager.Handle acquireWakeLock(String reason) {
+        return WakeLockManager.getInstance(context).acquireScreen(reason, 10 * 60 * 1000L);
     }
 
     /**
@@ -584,38 +496,11 @@ public class FullDeviceLockManager {
         if (!isDeviceOwner())
             return;
         try {
-            // Block critical escape paths
-            String[] packagesToBlock = {
-                    "com.android.settings",
-                    "com.android.vending",
-                    "com.google.android.youtube",
-                    "com.android.chrome",
-                    "com.google.android.apps.messaging",
-                    "com.android.dialer"
-            };
-            for (String pkg : packagesToBlock) {
-                try {
-                    dpm.setApplicationHidden(adminComponent, pkg, hidden);
-                } catch (Exception e) {
-                    // App might not exist
-                }
-            }
+            // Launchers, settings, stores, browsers... resolved per device (see EscapeAppResolver)
+            EscapeAppResolver.getInstance(context).setHidden(hidden);
             Log.i(TAG, "Other apps " + (hidden ? "HIDDEN" : "VISIBLE"));
         } catch (Exception e) {
             Log.e(TAG, "Failed to toggle app visibility", e);
         }
     }
-
-    /**
-     * Release wake lock
-     */
-    public void releaseWakeLock() {
-        try {
-            if (wakeLock != null && wakeLock.isHeld()) {
-                wakeLock.release();
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to release wake lock", e);
-        }
-    }
 }
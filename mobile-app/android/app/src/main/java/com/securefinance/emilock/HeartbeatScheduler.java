@@ -0,0 +1,237 @@
+package com.securefinance.emilock;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * HeartbeatScheduler - Picks the delay until the next heartbeat
+ *
+ * Features:
+ * - Polls fast only around expected state changes (EMI due window, push channel down while locked)
+ * - Stretches the interval when idle, offline, on battery saver or on a metered network
+ * - Honours server hints: Retry-After, and the pollIntervalSec field of the status payload
+ *   for the relaxed tiers (push up, leased, idle) only
+ * - Exponential backoff with jitter on failures so a fleet never retries in lockstep
+ * - A valid signed lease (LockLease) stands in for frequent idle polls, and the next tick
+ *   never lands later than the lease expiry
+ * - Reports its current interval and wakeups per hour through EmiMetrics
+ */
+public class HeartbeatScheduler {
+
+    private static final String TAG = "EMI_HeartbeatSched";
+
+    // Push channel down: only the heartbeat can deliver lock decisions
+    private static final long DUE_WINDOW_INTERVAL = 30 * 1000;
+    private static final long LOCKED_INTERVAL = 60 * 1000;
+    private static final long IDLE_INTERVAL = 3 * 60 * 1000;
+    // Idle with a valid lease: enforcement no longer depends on reaching the server
+    private static final long LEASED_IDLE_INTERVAL = 10 * 60 * 1000;
+    // Push channel up: the heartbeat only carries reports and update checks
+    private static final long CHANNEL_UP_INTERVAL = 15 * 60 * 1000;
+    // No network at all: a connectivity callback wakes us early when it returns
+    private static final long OFFLINE_INTERVAL = 15 * 60 * 1000;
+
+    private static final long MIN_INTERVAL = 15 * 1000;
+    private static final long MAX_INTERVAL = 30 * 60 * 1000;
+    private static final long MAX_BACKOFF = 15 * 60 * 1000;
+
+    // Poll fast from shortly before the due date until the server scheduler has had time to lock
+    private static final long DUE_WINDOW_BEFORE = 60 * 60 * 1000;
+    private static final long DUE_WINDOW_AFTER = 36 * 60 * 60 * 1000;
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private final Context context;
+    private final Random random = new Random();
+    private final ArrayDeque<Long> wakeups = new ArrayDeque<>();
+
+    private int consecutiveFailures = 0;
+    private long retryAfterUntil = 0; // elapsedRealtime
+    private long serverIntervalMs = 0;
+    private long nextDueAt = 0; // wall clock, from the server
+    private boolean offline = false;
+    private long leaseExpiresAt = 0; // wall clock, 0 = no valid lease
+
+    public HeartbeatScheduler(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Delay until the next tick
+     */
+    public synchronized long nextDelay(boolean channelUp, boolean isLocked) {
+        long interval;
+        String reason;
+
+        offline = !isOnline();
+        if (offline) {
+            interval = OFFLINE_INTERVAL;
+            reason = "offline";
+        } else if (channelUp) {
+            interval = CHANNEL_UP_INTERVAL;
+            reason = "push";
+        } else if (isInDueWindow()) {
+            interval = DUE_WINDOW_INTERVAL;
+            reason = "due";
+        } else if (isLocked) {
+            interval = LOCKED_INTERVAL;
+            reason = "locked";
+        } else if (leaseExpiresAt > System.currentTimeMillis()) {
+            interval = LEASED_IDLE_INTERVAL;
+            reason = "leased";
+        } else {
+            interval = IDLE_INTERVAL;
+            reason = "idle";
+        }
+
+        // The server's pollIntervalSec only tunes the relaxed tiers; with the push channel
+        // down, the locked and due tiers keep their own pace whatever the hint says
+        if (serverIntervalMs > 0 && !"due".equals(reason) && !"locked".equals(reason)
+                && !"offline".equals(reason)) {
+            interval = serverIntervalMs;
+            reason += "+server";
+        }
+
+        // Lock-critical windows keep their pace; everything else yields to battery and data limits
+        if (!"due".equals(reason)) {
+            if (isPowerSaveMode())
+                interval *= 2;
+            if (isMetered())
+                interval = interval * 3 / 2;
+        }
+
+        if (consecutiveFailures > 0) {
+            long backoff = IDLE_INTERVAL << Math.min(consecutiveFailures - 1, 4);
+            interval = Math.max(interval, Math.min(backoff, MAX_BACKOFF));
+            reason += "+backoff";
+        }
+
+        // +/-20% jitter
+        interval = interval * 4 / 5 + (long) (random.nextDouble() * interval * 2 / 5);
+
+        long retryWait = retryAfterUntil - SystemClock.elapsedRealtime();
+        if (retryWait > interval) {
+            interval = retryWait;
+            reason += "+retryAfter";
+        }
+
+        long untilLeaseExpiry = leaseExpiresAt - System.currentTimeMillis();
+        if (untilLeaseExpiry > 0 && untilLeaseExpiry < interval) {
+            // Wake up in time to apply the lease's expiry policy
+            interval = untilLeaseExpiry;
+            reason += "+leaseExpiry";
+        }
+
+        interval = Math.max(MIN_INTERVAL, Math.min(interval, MAX_INTERVAL));
+        EmiMetrics.setGauge("heartbeat.intervalMs", interval);
+        Log.d(TAG, "Next heartbeat in " + interval / 1000 + "s (" + reason + ")");
+        return interval;
+    }
+
+    /**
+     * Wall-clock expiry of the current valid lease, 0 when there is none
+     */
+    public synchronized void setLeaseExpiry(long expiresAt) {
+        leaseExpiresAt = expiresAt;
+    }
+
+    /**
+     * True when the last delay was stretched because there was no network
+     */
+    public synchronized boolean isWaitingForNetwork() {
+        return offline;
+    }
+
+    /**
+     * A tick fired - counts toward wakeups per hour
+     */
+    public synchronized void recordWakeup() {
+        long now = SystemClock.elapsedRealtime();
+        wakeups.addLast(now);
+        while (!wakeups.isEmpty() && now - wakeups.peekFirst() > HOUR) {
+            wakeups.pollFirst();
+        }
+        EmiMetrics.increment("heartbeat.wakeups");
+        EmiMetrics.setGauge("heartbeat.wakeupsPerHour", wakeups.size());
+    }
+
+    /**
+     * False while the server asked us to stay away (Retry-After)
+     */
+    public synchronized boolean mayPoll() {
+        return SystemClock.elapsedRealtime() >= retryAfterUntil;
+    }
+
+    public synchronized void onSuccess(String retryAfter, long pollIntervalSec, long dueAt) {
+        consecutiveFailures = 0;
+        applyRetryAfter(retryAfter);
+        serverIntervalMs = pollIntervalSec > 0 ? pollIntervalSec * 1000 : 0;
+        nextDueAt = dueAt;
+    }
+
+    /**
+     * 304 - payload unchanged, so the previous hints still apply
+     */
+    public synchronized void onNotModified(String retryAfter) {
+        consecutiveFailures = 0;
+        applyRetryAfter(retryAfter);
+    }
+
+    public synchronized void onFailure(String retryAfter) {
+        consecutiveFailures++;
+        applyRetryAfter(retryAfter);
+        EmiMetrics.setGauge("heartbeat.consecutiveFailures", consecutiveFailures);
+    }
+
+    private void applyRetryAfter(String retryAfter) {
+        if (retryAfter == null)
+            return;
+        try {
+            // Delta-seconds form only; HTTP-date is not used by our backend
+            long seconds = Long.parseLong(retryAfter.trim());
+            retryAfterUntil = SystemClock.elapsedRealtime() + Math.min(seconds * 1000, MAX_INTERVAL);
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Ignoring Retry-After: " + retryAfter);
+        }
+    }
+
+    private boolean isInDueWindow() {
+        if (nextDueAt <= 0)
+            return false;
+        long now = System.currentTimeMillis();
+        return now >= nextDueAt - DUE_WINDOW_BEFORE && now <= nextDueAt + DUE_WINDOW_AFTER;
+    }
+
+    private boolean isOnline() {
+        try {
+            ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            if (cm == null)
+                return true; // Unknown counts as online - never stretch the interval on a guess
+            Network network = cm.getActiveNetwork();
+            if (network == null)
+                return false;
+            NetworkCapabilities caps = cm.getNetworkCapabilities(network);
+            return caps == null || caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+        } catch (Exception e) {
+            return true;
+        }
+    }
+
+    private boolean isMetered() {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        return cm != null && cm.isActiveNetworkMetered();
+    }
+
+    private boolean isPowerSaveMode() {
+        PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        return pm != null && pm.isPowerSaveMode();
+    }
+}
@@ -0,0 +1,127 @@
+package com.securefinance.emilock;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * HedgedCall - One logical request against the ranked endpoint list
+ *
+ * Features:
+ * - Sends to the active endpoint and feeds latency / failures back to EndpointSelector
+ * - Optionally fires a second (hedged) request at the best alternate when the primary
+ *   is slower than its recent p90; the first good answer wins, the other is cancelled
+ * - Only idempotent requests may be hedged (status GET, never the report sync POST)
+ * - The caller's Callback sees exactly one outcome
+ */
+public class HedgedCall {
+
+    public interface RequestFactory {
+        Request build(String baseUrl);
+    }
+
+    private final OkHttpClient client;
+    private final EndpointSelector selector;
+    private final RequestFactory factory;
+    private final Callback callback;
+
+    private final AtomicBoolean delivered = new AtomicBoolean();
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile Call primaryCall;
+    private volatile Call hedgeCall;
+
+    private HedgedCall(OkHttpClient client, EndpointSelector selector, RequestFactory factory, Callback callback) {
+        this.client = client;
+        this.selector = selector;
+        this.factory = factory;
+        this.callback = callback;
+    }
+
+    /**
+     * @param hedgeHandler where the hedge timer runs; null disables hedging
+     */
+    public static void enqueue(OkHttpClient client, EndpointSelector selector, Handler hedgeHandler,
+            RequestFactory factory, Callback callback) {
+        HedgedCall hedged = new HedgedCall(client, selector, factory, callback);
+        hedged.start(hedgeHandler);
+    }
+
+    private void start(Handler hedgeHandler) {
+        primaryCall = attempt(selector.current(), false);
+
+        if (hedgeHandler == null)
+            return;
+        long delay = selector.hedgeDelayMs();
+        if (delay <= 0)
+            return;
+        hedgeHandler.postDelayed(() -> {
+            if (delivered.get() || pending.get() != 1)
+                return;
+            String alternate = selector.alternate();
+            if (alternate == null)
+                return;
+            EmiMetrics.increment("endpoint.hedged");
+            hedgeCall = attempt(alternate, true);
+        }, delay);
+    }
+
+    private Call attempt(String baseUrl, boolean isHedge) {
+        final long startedAt = SystemClock.elapsedRealtime();
+        pending.incrementAndGet();
+        Call call = client.newCall(factory.build(baseUrl));
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (call.isCanceled() && delivered.get())
+                    return; // Lost the race - not the endpoint's fault
+                selector.recordFailure(baseUrl);
+                if (pending.decrementAndGet() > 0)
+                    return; // The other attempt may still answer
+                if (delivered.compareAndSet(false, true)) {
+                    callback.onFailure(call, e);
+                }
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                boolean serverError = response.code() >= 500;
+                if (serverError) {
+                    selector.recordFailure(baseUrl);
+                } else {
+                    selector.recordSuccess(baseUrl, SystemClock.elapsedRealtime() - startedAt);
+                }
+                int remaining = pending.decrementAndGet();
+                if (serverError && remaining > 0) {
+                    response.close();
+                    return;
+                }
+                if (!delivered.compareAndSet(false, true)) {
+                    response.close();
+                    return;
+                }
+                cancelOther(call);
+                if (isHedge) {
+                    EmiMetrics.increment("endpoint.hedgeWins");
+                }
+                callback.onResponse(call, response);
+            }
+        });
+        return call;
+    }
+
+    private void cancelOther(Call winner) {
+        Call other = winner == primaryCall ? hedgeCall : primaryCall;
+        if (other != null) {
+            other.cancel();
+        }
+    }
+}
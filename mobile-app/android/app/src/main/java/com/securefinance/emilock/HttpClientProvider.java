@@ -0,0 +1,103 @@
+package com.securefinance.emilock;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * HttpClientProvider - One HTTP stack for the whole process
+ *
+ * Features:
+ * - Single connection pool, dispatcher and TLS socket factory shared by every caller
+ * - HTTP/2 negotiated via ALPN, so heartbeat, reports and update checks multiplex one connection
+ * - TLS sessions are resumed instead of paying a full handshake per request
+ * - Per-endpoint timeouts derived with newBuilder() (no extra pools or threads)
+ */
+public final class HttpClientProvider {
+
+    private static final String TAG = "EMI_Http";
+
+    public static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    // Keep idle connections long enough to span the fallback poll interval
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private static volatile OkHttpClient shared;
+    private static volatile OkHttpClient reports;
+    private static volatile OkHttpClient downloads;
+
+    private HttpClientProvider() {
+    }
+
+    /**
+     * Base client - short-lived API calls (status, config, update manifest)
+     */
+    public static OkHttpClient get() {
+        OkHttpClient client = shared;
+        if (client == null) {
+            synchronized (HttpClientProvider.class) {
+                client = shared;
+                if (client == null) {
+                    client = new OkHttpClient.Builder()
+                            .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES,
+                                    TimeUnit.MINUTES))
+                            .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                            .connectTimeout(10, TimeUnit.SECONDS)
+                            .readTimeout(15, TimeUnit.SECONDS)
+                            .writeTimeout(15, TimeUnit.SECONDS)
+                            .retryOnConnectionFailure(true)
+                            .build();
+                    shared = client;
+                    Log.i(TAG, "Shared HTTP client created");
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Fire-and-forget reports (SIM change, security events, device registration)
+     */
+    public static OkHttpClient forReports() {
+        OkHttpClient client = reports;
+        if (client == null) {
+            synchronized (HttpClientProvider.class) {
+                client = reports;
+                if (client == null) {
+                    client = get().newBuilder()
+                            .callTimeout(30, TimeUnit.SECONDS)
+                            .build();
+                    reports = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Large bodies (APK downloads) - no overall deadline, generous read timeout between chunks
+     */
+    public static OkHttpClient forDownloads() {
+        OkHttpClient client = downloads;
+        if (client == null) {
+            synchronized (HttpClientProvider.class) {
+                client = downloads;
+                if (client == null) {
+                    client = get().newBuilder()
+                            .readTimeout(60, TimeUnit.SECONDS)
+                            .callTimeout(0, TimeUnit.SECONDS)
+                            .build();
+                    downloads = client;
+                }
+            }
+        }
+        return client;
+    }
+}
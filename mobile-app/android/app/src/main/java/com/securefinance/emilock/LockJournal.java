@@ -0,0 +1,152 @@
+package com.securefinance.emilock;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * LockJournal - Write-ahead journal of the current lock/unlock transition
+ *
+ * Features:
+ * - Records the target state before the first step and each durable step as it completes
+ * - Every record is fsynced, so a process killed mid-sequence leaves an exact list
+ *   of what already happened
+ * - A new transition towards the same target resumes the unfinished one and skips
+ *   the steps already done; a committed journal always starts fresh
+ * - Torn trailing records are ignored (an unknown step name is simply not done)
+ *
+ * File format (filesDir/lock.journal), one record per line:
+ *   L | U        target of the transition
+ *   <step>       step completed
+ *   !<step>      step failed - not done, a later transition runs it again
+ *   C            transition committed
+ */
+public class LockJournal {
+
+    private static final String TAG = "EMI_Journal";
+    private static final String FILE_NAME = "lock.journal";
+    private static final String RECORD_LOCK = "L";
+    private static final String RECORD_UNLOCK = "U";
+    private static final String RECORD_COMMIT = "C";
+    private static final String RECORD_FAILED = "!";
+
+    private static LockJournal instance;
+
+    private final File file;
+
+    // In-memory mirror of the file
+    private Boolean target;
+    private final Set<String> done = new HashSet<>();
+    private boolean committed = true;
+
+    private LockJournal(Context context) {
+        this.file = new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+        load();
+    }
+
+    public static synchronized LockJournal getInstance(Context context) {
+        if (instance == null) {
+            instance = new LockJournal(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Start (or resume) a transition towards this state
+     *
+     * @return true if an unfinished transition to the same state was resumed
+     */
+    public synchronized boolean begin(boolean locked) {
+        if (!committed && target != null && target == locked) {
+            EmiMetrics.increment("journal.resumed");
+            Log.i(TAG, "Resuming unfinished " + (locked ? "lock" : "unlock") + " - done: " + done);
+            return true;
+        }
+        target = locked;
+        done.clear();
+        committed = false;
+        write(locked ? RECORD_LOCK : RECORD_UNLOCK, false);
+        return false;
+    }
+
+    public synchronized boolean isDone(String step) {
+        if (done.contains(step)) {
+            EmiMetrics.increment("journal.skippedSteps");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record a completed step - durable before this returns
+     */
+    public synchronized void done(String step) {
+        done.add(step);
+        write(step, true);
+    }
+
+    /**
+     * Record a step that ran and failed - the transition can still commit without it
+     */
+    public synchronized void failed(String step) {
+        done.remove(step);
+        EmiMetrics.increment("journal.failedSteps");
+        write(RECORD_FAILED + step, true);
+    }
+
+    public synchronized void commit() {
+        committed = true;
+        write(RECORD_COMMIT, true);
+    }
+
+    /**
+     * Target of a transition that was started but never committed, or null
+     */
+    public synchronized Boolean unfinishedTarget() {
+        return committed ? null : target;
+    }
+
+    private void write(String record, boolean append) {
+        try (FileOutputStream out = new FileOutputStream(file, append)) {
+            out.write((record + "\n").getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            // Without the journal a crash just means the full sequence runs again
+            Log.e(TAG, "Journal write failed", e);
+        }
+    }
+
+    private void load() {
+        if (!file.exists())
+            return;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line = reader.readLine();
+            if (RECORD_LOCK.equals(line) || RECORD_UNLOCK.equals(line)) {
+                target = RECORD_LOCK.equals(line);
+                committed = false;
+                while ((line = reader.readLine()) != null) {
+                    if (RECORD_COMMIT.equals(line)) {
+                        committed = true;
+                    } else if (line.startsWith(RECORD_FAILED)) {
+                        done.remove(line.substring(RECORD_FAILED.length()));
+                    } else if (!line.isEmpty()) {
+                        done.add(line);
+                    }
+                }
+            }
+            if (!committed) {
+                Log.w(TAG, "Found unfinished " + (target ? "lock" : "unlock") + " - done: " + done);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Journal read failed", e);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.securefinance.emilock;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Base64;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+
+/**
+ * LockLease - Signed, time-bounded lock policy from the server
+ *
+ * Features:
+ * - Verifies the ECDSA P-256 signature against the key installed at provisioning
+ * - Persists the last good lease so enforcement survives reboots without network
+ * - Rejects leases older than the one it holds (no replay/rollback)
+ * - After expiry applies the lease's own default (lock / unlock / keep)
+ * - Expiry is also tracked on the monotonic clock, so winding the wall clock back
+ *   does not extend a lease within the current boot
+ *
+ * Signature checks only run when a new lease arrives; reads are a field lookup.
+ */
+public class LockLease {
+
+    private static final String TAG = "EMI_LockLease";
+
+    private static final String PREFS_NAME = "PhoneLockPrefs";
+    public static final String KEY_PUBLIC_KEY = "LEASE_PUBLIC_KEY";
+    private static final String KEY_LEASE = "LEASE";
+    private static final String KEY_LEASE_SIG = "LEASE_SIG";
+
+    private static final int B64_FLAGS = Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP;
+
+    private static LockLease instance;
+
+    private final SharedPreferences prefs;
+    private PublicKey publicKey;
+
+    // Current verified lease (leaseText == null means none)
+    private String leaseText;
+    private boolean locked;
+    private long version;
+    private long issuedAt;
+    private long expiresAt; // wall clock
+    private long expiresAtElapsed; // elapsedRealtime, 0 until accepted in this boot
+    private String onExpiry = "lock";
+
+    private LockLease(Context context) {
+        prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        publicKey = loadPublicKey(prefs.getString(KEY_PUBLIC_KEY, null));
+        // Re-verify the stored lease - prefs are not a trust boundary
+        String stored = prefs.getString(KEY_LEASE, null);
+        if (stored != null && !load(stored, prefs.getString(KEY_LEASE_SIG, null))) {
+            Log.w(TAG, "Stored lease failed verification - discarded");
+        }
+    }
+
+    public static synchronized LockLease getInstance(Context context) {
+        if (instance == null) {
+            instance = new LockLease(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Offer a lease from the server (status response or push frame)
+     * Returns true when it replaced the current one
+     */
+    public synchronized boolean accept(String lease, String signature) {
+        if (lease == null || signature == null)
+            return false;
+        if (lease.equals(leaseText))
+            return false; // Same bucket - already verified
+        String previous = leaseText;
+        if (!load(lease, signature)) {
+            EmiMetrics.increment("lease.rejected");
+            return false;
+        }
+        prefs.edit()
+                .putString(KEY_LEASE, lease)
+                .putString(KEY_LEASE_SIG, signature)
+                .apply();
+        EmiMetrics.increment("lease.accepted");
+        EmiMetrics.setGauge("lease.expiresAt", expiresAt);
+        Log.d(TAG, (previous == null ? "Lease installed" : "Lease renewed") + ": "
+                + (locked ? "LOCKED" : "UNLOCKED") + " until " + expiresAt);
+        return true;
+    }
+
+    /**
+     * What the lease says the device should be doing right now
+     * null = no opinion (no lease, or expired with the "keep" policy)
+     */
+    public synchronized Boolean desiredLockState() {
+        if (leaseText == null)
+            return null;
+        if (!isExpired())
+            return locked;
+        switch (onExpiry) {
+            case "unlock":
+                return false;
+            case "keep":
+                return null;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Wall-clock expiry of a valid lease, 0 when there is none
+     */
+    public synchronized long getExpiresAt() {
+        return leaseText != null && !isExpired() ? expiresAt : 0;
+    }
+
+    private boolean isExpired() {
+        if (System.currentTimeMillis() >= expiresAt)
+            return true;
+        return expiresAtElapsed > 0 && SystemClock.elapsedRealtime() >= expiresAtElapsed;
+    }
+
+    private boolean load(String lease, String signature) {
+        if (publicKey == null) {
+            // Re-read - the key may have been provisioned after this instance was created
+            publicKey = loadPublicKey(prefs.getString(KEY_PUBLIC_KEY, null));
+            if (publicKey == null)
+                return false;
+        }
+        try {
+            Signature verifier = Signature.getInstance("SHA256withECDSA");
+            verifier.initVerify(publicKey);
+            verifier.update(lease.getBytes(StandardCharsets.US_ASCII));
+            if (!verifier.verify(Base64.decode(signature, B64_FLAGS))) {
+                Log.w(TAG, "❌ Lease signature invalid");
+                return false;
+            }
+
+            JSONObject body = new JSONObject(new String(Base64.decode(lease, B64_FLAGS), StandardCharsets.UTF_8));
+            String customerId = prefs.getString("CUSTOMER_ID", null);
+            if (customerId != null && !customerId.equals(body.optString("cid"))) {
+                Log.w(TAG, "❌ Lease issued for another device");
+                return false;
+            }
+            long leaseVersion = body.optLong("v", 0);
+            long issuedAt = body.optLong("iat", 0);
+            // A later issuance wins even with a lower version (server clocks may disagree)
+            if (leaseText != null && leaseVersion < version && issuedAt <= this.issuedAt) {
+                Log.w(TAG, "Ignoring lease for older policy version " + leaseVersion + " < " + version);
+                return false;
+            }
+
+            long exp = body.optLong("exp", 0);
+            leaseText = lease;
+            locked = body.optBoolean("locked", false);
+            version = leaseVersion;
+            this.issuedAt = issuedAt;
+            expiresAt = exp;
+            onExpiry = body.optString("onExpiry", "lock");
+            long remaining = exp - System.currentTimeMillis();
+            expiresAtElapsed = remaining > 0 ? SystemClock.elapsedRealtime() + remaining : 0;
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Lease verification failed", e);
+            return false;
+        }
+    }
+
+    private static PublicKey loadPublicKey(String base64) {
+        if (base64 == null || base64.isEmpty())
+            return null;
+        try {
+            byte[] der = Base64.decode(base64, Base64.DEFAULT);
+            return KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(der));
+        } catch (Exception e) {
+            Log.e(TAG, "Invalid lease public key", e);
+            return null;
+        }
+    }
+}
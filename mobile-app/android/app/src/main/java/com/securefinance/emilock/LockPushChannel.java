@@ -0,0 +1,211 @@
+package com.securefinance.emilock;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.BufferedSource;
+
+/**
+ * LockPushChannel - Persistent server push channel for lock decisions
+ *
+ * Features:
+ * - Keeps one Server-Sent Events stream open to /api/customers/{id}/events
+ * - Delivers lock/unlock decisions as soon as the server stores them
+ * - Detects a dead connection when heartbeat frames stop arriving
+ * - Reconnects with exponential backoff and jitter
+ */
+public class LockPushChannel {
+
+    private static final String TAG = "EMI_PushChannel";
+
+    // Server sends a heartbeat frame every 20s - three missed frames means the channel is dead
+    private static final long READ_TIMEOUT_MS = 60 * 1000;
+    private static final long MIN_BACKOFF_MS = 2 * 1000;
+    private static final long MAX_BACKOFF_MS = 2 * 60 * 1000;
+
+    public interface Listener {
+        // lease / leaseSig are null when the server doesn't issue leases
+        void onLockState(boolean isLocked, String lease, String leaseSig);
+
+        void onChannelStateChanged(boolean connected);
+    }
+
+    private final OkHttpClient client;
+    private final Listener listener;
+    private final Random random = new Random();
+
+    private volatile String url;
+    private volatile boolean running = false;
+    private volatile boolean connected = false;
+    private volatile long lastFrameAt = 0;
+    private volatile Call activeCall;
+    private volatile Thread worker;
+
+    public LockPushChannel(OkHttpClient baseClient, Listener listener) {
+        // Same connection pool as the heartbeat, but the read timeout doubles as the liveness check.
+        // The stream is meant to stay open, so no overall call deadline
+        this.client = baseClient.newBuilder()
+                .readTimeout(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .callTimeout(0, TimeUnit.MILLISECONDS)
+                .retryOnConnectionFailure(true)
+                .build();
+        this.listener = listener;
+    }
+
+    /**
+     * Start (or retarget) the channel
+     */
+    public synchronized void start(String eventsUrl) {
+        if (running && eventsUrl.equals(url))
+            return;
+
+        stop();
+        url = eventsUrl;
+        running = true;
+        worker = new Thread(this::runLoop, "EMI_PushChannel");
+        worker.start();
+        Log.i(TAG, "Push channel starting: " + eventsUrl);
+    }
+
+    public synchronized void stop() {
+        running = false;
+        Call call = activeCall;
+        if (call != null) {
+            call.cancel();
+        }
+        if (worker != null) {
+            worker.interrupt();
+            worker = null;
+        }
+        setConnected(false);
+    }
+
+    /**
+     * True while the stream is open and heartbeat frames keep arriving
+     */
+    public boolean isConnected() {
+        return connected && SystemClock.elapsedRealtime() - lastFrameAt < READ_TIMEOUT_MS;
+    }
+
+    private void runLoop() {
+        long backoff = MIN_BACKOFF_MS;
+
+        while (isActiveWorker()) {
+            try {
+                Request request = new Request.Builder()
+                        .url(url)
+                        .header("Accept", "text/event-stream")
+                        .build();
+
+                activeCall = client.newCall(request);
+                try (Response response = activeCall.execute()) {
+                    if (!response.isSuccessful() || response.body() == null) {
+                        Log.w(TAG, "Push channel rejected: " + response.code());
+                    } else {
+                        backoff = MIN_BACKOFF_MS;
+                        readEvents(response.body().source());
+                    }
+                }
+            } catch (Exception e) {
+                if (isActiveWorker()) {
+                    Log.w(TAG, "Push channel dropped: " + e.getMessage());
+                }
+            } finally {
+                activeCall = null;
+                if (isActiveWorker()) {
+                    setConnected(false);
+                }
+            }
+
+            if (!isActiveWorker())
+                break;
+
+            // Exponential backoff with jitter so a fleet doesn't reconnect in lockstep
+            long delay = backoff / 2 + (long) (random.nextDouble() * backoff / 2);
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        Log.i(TAG, "Push channel stopped");
+    }
+
+    private void readEvents(BufferedSource source) throws Exception {
+        String event = "message";
+        StringBuilder data = new StringBuilder();
+
+        while (isActiveWorker()) {
+            String line = source.readUtf8Line();
+            if (line == null)
+                return; // Server closed the stream
+
+            if (line.isEmpty()) {
+                if (data.length() > 0) {
+                    dispatch(event, data.toString());
+                }
+                event = "message";
+                data.setLength(0);
+            } else if (line.startsWith("event:")) {
+                event = line.substring(6).trim();
+            } else if (line.startsWith("data:")) {
+                if (data.length() > 0)
+                    data.append('\n');
+                data.append(line.substring(5).trim());
+            }
+            // Comments (":") and "retry:" lines need no handling
+        }
+    }
+
+    // A retargeted channel leaves the old worker running until its blocking read returns
+    private boolean isActiveWorker() {
+        return running && worker == Thread.currentThread();
+    }
+
+    private void dispatch(String event, String data) {
+        lastFrameAt = SystemClock.elapsedRealtime();
+        setConnected(true);
+
+        switch (event) {
+            case "state":
+                try {
+                    JSONObject json = new JSONObject(data);
+                    if (json.has("isLocked")) {
+                        listener.onLockState(json.getBoolean("isLocked"),
+                                json.optString("lease", null), json.optString("leaseSig", null));
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Bad state frame", e);
+                }
+                break;
+            case "heartbeat":
+                // Liveness only
+                break;
+            default:
+                Log.d(TAG, "Ignoring event: " + event);
+                break;
+        }
+    }
+
+    private void setConnected(boolean value) {
+        if (connected == value)
+            return;
+        connected = value;
+        Log.i(TAG, value ? "📡 Push channel connected" : "Push channel disconnected");
+        try {
+            listener.onChannelStateChanged(value);
+        } catch (Exception e) {
+            Log.e(TAG, "Listener error", e);
+        }
+    }
+}
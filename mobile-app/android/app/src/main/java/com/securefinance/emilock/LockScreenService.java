@@ -7,9 +7,14 @@ import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
-import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import androidx.core.app.NotificationCompat;
 import okhttp3.Call;
@@ -19,24 +24,100 @@ import okhttp3.Request;
 import okhttp3.Response;
 import org.json.JSONObject;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class LockScreenService extends Service {
     private static final String TAG = "LockScreenService";
     private static final String CHANNEL_ID = "LockServiceChannel";
+    // Heartbeat scheduling runs on its own thread, never on the main Looper
+    private HandlerThread heartbeatThread;
     private Handler handler;
     private Runnable heartbeatRunnable;
     private OkHttpClient client;
-    private String serverUrl;
-    private String customerId;
+    private volatile String serverUrl;
+    private volatile String customerId;
+    // Single-flight: at most one status request outstanding, stale results are dropped
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong statusGeneration = new AtomicLong();
     private AutoUpdateManager updateManager;
+    private LockPushChannel pushChannel;
     private long lastUpdateCheck = 0;
+    // Last validator/result of the status document - a 304 reuses these without a body or parse
+    private volatile String statusEtag;
+    private volatile boolean lastKnownLocked;
+    // Reused for every heartbeat - parsed in place from the response stream
+    private final LockStatus status = new LockStatus();
+    private static final String KEY_STATUS_ETAG = "STATUS_ETAG";
+    private static final String KEY_STATUS_LOCKED = "STATUS_LOCKED";
     private static final long UPDATE_CHECK_INTERVAL = 60 * 60 * 1000; // 1 hour
+    // Lock decisions arrive over the push channel; HeartbeatScheduler adapts the fallback poll
+    private HeartbeatScheduler scheduler;
+    private ConnectivityManager.NetworkCallback networkCallback;
+    private static final long CONFIG_RETRY_INTERVAL = 30 * 1000; // Not provisioned yet - prefs only, no network
+    // Reports queued within this window share one sync round trip
+    private static final long FLUSH_COALESCE_DELAY = 2 * 1000;
+    private final Runnable flushRunnable = this::checkLockStatus;
+    // A lease only overrides local state when the server hasn't answered for this long
+    private static final long SERVER_AUTHORITY_WINDOW = 5 * 60 * 1000;
+    private volatile long lastServerContact = 0; // elapsedRealtime of the last status/push
 
     @Override
     public void onCreate() {
         super.onCreate();
-        client = new OkHttpClient();
-        handler = new Handler(Looper.getMainLooper());
+        // Derived from the process-wide client: same pool, so reports and update checks reuse this connection
+        client = HttpClientProvider.get().newBuilder()
+                .callTimeout(20, TimeUnit.SECONDS) // Bounds how long a single flight can block the next one
+                .addInterceptor(chain -> {
+                    // Time spent waiting in the dispatcher queue before the call actually started
+                    Long enqueuedAt = chain.request().tag(Long.class);
+                    if (enqueuedAt != null) {
+                        EmiMetrics.recordDuration("heartbeat.queueWaitMs",
+                                SystemClock.elapsedRealtime() - enqueuedAt);
+                    }
+                    Response response = chain.proceed(chain.request());
+                    EmiMetrics.increment("heartbeat.requests");
+                    if (response.body() != null && response.body().contentLength() > 0) {
+                        EmiMetrics.add("heartbeat.bytesIn", response.body().contentLength());
+                    }
+                    return response;
+                })
+                .build();
+        scheduler = new HeartbeatScheduler(this);
+        heartbeatThread = new HandlerThread("EMI_Heartbeat");
+        heartbeatThread.start();
+        handler = new Handler(heartbeatThread.getLooper());
+        // New process after an app update, or a grant revoked meanwhile - no-op when nothing drifted
+        handler.post(() -> FullDeviceLockManager.getInstance(LockScreenService.this).grantAllPermissions());
+        // Shared base client, not the heartbeat one: no call timeout and not counted as heartbeat traffic
+        pushChannel = new LockPushChannel(HttpClientProvider.get(), new LockPushChannel.Listener() {
+            @Override
+            public void onLockState(boolean isLocked, String lease, String leaseSig) {
+                Log.d(TAG, "Push: lock state " + (isLocked ? "LOCKED" : "UNLOCKED"));
+                LockLease.getInstance(LockScreenService.this).accept(lease, leaseSig);
+                lastServerContact = SystemClock.elapsedRealtime();
+                // Anything still in flight is older than this decision
+                statusGeneration.incrementAndGet();
+                // Drop the validator so the next fallback poll can't answer with a stale 304
+                rememberStatus(null, isLocked);
+                handleLockState(isLocked, "push");
+            }
+
+            @Override
+            public void onChannelStateChanged(boolean connected) {
+                if (!connected) {
+                    // Channel just died - poll right away instead of waiting for the next tick
+                    handler.post(LockScreenService.this::checkLockStatus);
+                }
+            }
+        });
+        registerNetworkCallback();
+        ReportOutbox.setFlushListener(() -> {
+            handler.removeCallbacks(flushRunnable);
+            handler.postDelayed(flushRunnable, FLUSH_COALESCE_DELAY);
+        });
         createNotificationChannel();
     }
 
@@ -56,9 +137,12 @@ public class LockScreenService extends Service {
         SharedPreferences prefs = getSharedPreferences("PhoneLockPrefs", Context.MODE_PRIVATE);
         serverUrl = prefs.getString("SERVER_URL", null);
         customerId = prefs.getString("CUSTOMER_ID", null);
+        statusEtag = prefs.getString(KEY_STATUS_ETAG, null);
+        lastKnownLocked = prefs.getBoolean(KEY_STATUS_LOCKED, false);
 
         if (serverUrl != null && customerId != null) {
-            checkLockStatus(); // Immediate check
+            handler.post(this::checkLockStatus); // Immediate check
+            ensurePushChannel();
             startHeartbeatLoop();
         } else {
             Log.e(TAG, "Missing config (URL/ID), service waiting for provision data...");
@@ -70,9 +154,18 @@ public class LockScreenService extends Service {
     }
 
     private void startHeartbeatLoop() {
+        if (heartbeatRunnable != null) {
+            handler.removeCallbacks(heartbeatRunnable);
+        }
         heartbeatRunnable = new Runnable() {
+            long scheduledAt = SystemClock.uptimeMillis();
+
             @Override
             public void run() {
+                EmiMetrics.recordDuration("heartbeat.tickLagMs", SystemClock.uptimeMillis() - scheduledAt);
+                scheduler.recordWakeup();
+                enforceLease();
+
                 // Reload config if missing
                 if (serverUrl == null || customerId == null) {
                     SharedPreferences prefs = getSharedPreferences("PhoneLockPrefs", Context.MODE_PRIVATE);
@@ -80,13 +173,19 @@ public class LockScreenService extends Service {
                     customerId = prefs.getString("CUSTOMER_ID", null);
                 }
 
-                checkLockStatus();
+                ensurePushChannel();
+                boolean channelUp = pushChannel.isConnected();
+                if (!channelUp || ReportOutbox.hasPending(LockScreenService.this)) {
+                    // Queued reports ride on the status request even while push is up
+                    checkLockStatus();
+                }
 
                 // Periodically check for app updates
                 long currentTime = System.currentTimeMillis();
                 if (currentTime - lastUpdateCheck > UPDATE_CHECK_INTERVAL) {
                     if (updateManager == null && serverUrl != null) {
-                        updateManager = new AutoUpdateManager(LockScreenService.this, serverUrl);
+                        updateManager = new AutoUpdateManager(LockScreenService.this,
+                                ServerConfig.getBaseUrl(LockScreenService.this));
                     }
                     if (updateManager != null) {
                         updateManager.checkForUpdates();
@@ -94,62 +193,243 @@ public class LockScreenService extends Service {
                     }
                 }
 
-                handler.postDelayed(this, 3000); // Check every 3 seconds for immediate response
+                long delay = serverUrl == null || customerId == null
+                        ? CONFIG_RETRY_INTERVAL
+                        : scheduler.nextDelay(channelUp, lastKnownLocked);
+                scheduledAt = SystemClock.uptimeMillis() + delay;
+                handler.postDelayed(this, delay);
             }
         };
         handler.post(heartbeatRunnable);
     }
 
-    private void checkLockStatus() {
+    private void ensurePushChannel() {
         if (serverUrl == null || customerId == null)
             return;
+        pushChannel.start(buildBaseUrl() + "/api/customers/" + customerId + "/events");
+    }
+
+    private String buildBaseUrl() {
+        // Best-ranked endpoint; the push channel retargets on the next tick after a failover
+        return EndpointSelector.getInstance(this).current();
+    }
+
+    /**
+     * Local enforcement from the signed lease - runs every tick, network or not
+     */
+    private void enforceLease() {
+        LockLease lease = LockLease.getInstance(this);
+        Boolean desired = lease.desiredLockState();
+        scheduler.setLeaseExpiry(lease.getExpiresAt());
+        if (desired == null || desired == lastKnownLocked)
+            return;
+        if (lastServerContact > 0 && SystemClock.elapsedRealtime() - lastServerContact < SERVER_AUTHORITY_WINDOW)
+            return; // Server answered recently - its state is authoritative
+        // Lease expired without renewal, or it outranks a stale local state (e.g. after a reboot)
+        Log.w(TAG, "Lease enforcement: " + (desired ? "LOCKED" : "UNLOCKED"));
+        EmiMetrics.increment("lease.enforced");
+        rememberStatus(null, desired);
+        handleLockState(desired, "lease");
+    }
+
+    private void handleLockState(boolean isLocked, String source) {
+        // Only transitions (or detected drift) run the full lock/unlock sequence
+        EnforcementActor.getInstance(this).reconcile(isLocked, source);
+    }
 
-        // Construct URL: serverUrl/api/customers/customerId
-        String baseUrl = serverUrl.endsWith("/") ? serverUrl.substring(0, serverUrl.length() - 1) : serverUrl;
-        String url = baseUrl + "/api/customers/" + customerId;
+    private void checkLockStatus() {
+        if (serverUrl == null || customerId == null)
+            return;
 
-        // Fallback for emulator testing
-        if (serverUrl.contains("localhost")) {
-            url = url.replace("localhost", "10.0.2.2");
+        if (!scheduler.mayPoll()) {
+            // Server asked us to back off (Retry-After)
+            EmiMetrics.increment("heartbeat.skippedRetryAfter");
+            return;
         }
 
-        Request request = new Request.Builder()
-                .url(url)
-                .build();
+        if (!inFlight.compareAndSet(0, 1)) {
+            // Previous request still running (slow link) - don't pile another one on top
+            EmiMetrics.increment("heartbeat.skippedInFlight");
+            return;
+        }
+        EmiMetrics.setGauge("heartbeat.inFlight", 1);
+        final long generation = statusGeneration.incrementAndGet();
 
-        client.newCall(request).enqueue(new Callback() {
-            @Override
-            public void onFailure(Call call, IOException e) {
-                Log.e(TAG, "Heartbeat failed: " + e.getMessage());
+        JSONObject batch = ReportOutbox.buildBatch(this);
+        final boolean syncing = batch != null;
+        final String etag = statusEtag;
+        HedgedCall.RequestFactory factory = baseUrl -> {
+            Request.Builder builder = new Request.Builder();
+            if (syncing) {
+                // Pending reports go out on this round trip: serverUrl/api/customers/customerId/sync
+                WireFormat.post(this, builder.url(baseUrl + "/api/customers/" + customerId + "/sync"), batch);
+            } else {
+                // Compact status projection: serverUrl/api/customers/customerId/lock-status
+                WireFormat.accept(this, builder.url(baseUrl + "/api/customers/" + customerId + "/lock-status"));
+                if (etag != null) {
+                    // Conditional request - server answers 304 with no body when nothing changed
+                    builder.header("If-None-Match", etag);
+                }
             }
+            return builder.tag(Long.class, SystemClock.elapsedRealtime()).build();
+        };
 
-            @Override
-            public void onResponse(Call call, Response response) throws IOException {
-                if (response.isSuccessful()) {
-                    try {
-                        String jsonData = response.body().string();
-                        JSONObject json = new JSONObject(jsonData);
-
-                        // Check lock status
-                        boolean isLocked = json.optBoolean("isLocked", false);
-
-                        if (isLocked) {
-                            Log.d(TAG, "Device is LOCKED. Enforcing Hard Kiosk Lock.");
-                            // Use FullDeviceLockManager to enforce premium hard lock
-                            new FullDeviceLockManager(LockScreenService.this).lockDeviceImmediately();
-                        } else {
-                            // Log.d(TAG, "Device is UNLOCKED.");
+        EndpointSelector.getInstance(this).probeIfDue(false);
+        // Status reads are idempotent and may be hedged; a sync applies reports and must go out once
+        HedgedCall.enqueue(client, EndpointSelector.getInstance(this), syncing ? null : handler, factory,
+                new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    finishFlight();
+                    scheduler.onFailure(null);
+                    Log.e(TAG, "Heartbeat failed: " + e.getMessage());
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) throws IOException {
+                    finishFlight();
+                    if (syncing && response.isSuccessful()) {
+                        // Acks are valid even if the lock state in this response is stale
+                        try {
+                            ArrayList<String> acked;
+                            synchronized (status) {
+                                readStatus(response);
+                                acked = new ArrayList<>(status.acks);
+                            }
+                            ReportOutbox.acknowledge(LockScreenService.this, acked);
+                            if (ReportOutbox.hasPending(LockScreenService.this) && !acked.isEmpty()) {
+                                ReportOutbox.requestFlush(); // More than one batch queued
+                            }
+                        } catch (Exception e) {
+                            Log.e(TAG, "Sync parse error", e);
+                            response.close();
+                            return;
                         }
+                    }
+                    if (generation != statusGeneration.get()) {
+                        // A newer decision (push) arrived while this one was in flight; nothing
+                        // was validated, so the scheduler's backoff and hints stay as they are
+                        EmiMetrics.increment("heartbeat.droppedStale");
+                        response.close();
+                        return;
+                    }
+                    if (response.code() == 304) {
+                        // Unchanged - skip transfer and parse, only re-check for drift
+                        lastServerContact = SystemClock.elapsedRealtime();
+                        scheduler.onNotModified(response.header("Retry-After"));
+                        handleLockState(lastKnownLocked, "heartbeat");
+                    } else if (response.isSuccessful()) {
+                        try {
+                            boolean isLocked;
+                            boolean hasLockState;
+                            synchronized (status) {
+                                if (!syncing) {
+                                    readStatus(response);
+                                }
+                                isLocked = status.isLocked;
+                                hasLockState = status.hasLockState;
+                                LockLease.getInstance(LockScreenService.this).accept(status.lease, status.leaseSig);
+                                lastServerContact = SystemClock.elapsedRealtime();
+                                scheduler.onSuccess(response.header("Retry-After"), status.pollIntervalSec,
+                                        status.nextDueAt);
+                                if (status.hasEndpoints) {
+                                    EndpointSelector.getInstance(LockScreenService.this)
+                                            .updateAlternates(status.endpoints);
+                                }
+                                if (status.lockInfoChanged) {
+                                    FullDeviceLockManager lockManager = FullDeviceLockManager
+                                            .getInstance(LockScreenService.this);
+                                    lockManager.setLockInfo(status.lockMessage, status.supportPhone);
+                                    lockManager.setPaymentInfo(status.amountDue, status.lender);
+                                    handler.post(LockWallpaperRenderer.getInstance(LockScreenService.this)::refresh);
+                                }
+                            }
+
+                            if (!hasLockState) {
+                                // Partial body or unknown shape - keep whatever is enforced now
+                                EmiMetrics.increment("heartbeat.missingLockState");
+                                Log.w(TAG, "Status response without isLocked - lock state left as is");
+                                response.close();
+                                return;
+                            }
 
-                    } catch (Exception e) {
-                        Log.e(TAG, "Parse error", e);
+                            // Check lock status
+                            // A sync response's ETag covers its acks, so it can't validate a later GET
+                            rememberStatus(syncing ? null : response.header("ETag"), isLocked);
+                            handleLockState(isLocked, "heartbeat");
+
+                        } catch (Exception e) {
+                            Log.e(TAG, "Parse error", e);
+                        }
+                    } else {
+                        if (response.code() == 415) {
+                            // Server doesn't speak our binary format - next tick goes out as JSON
+                            WireFormat.onUnsupported(LockScreenService.this);
+                        }
+                        scheduler.onFailure(response.header("Retry-After"));
+                        Log.w(TAG, "Heartbeat error: " + response.code());
                     }
-                } else {
-                    Log.w(TAG, "Heartbeat error: " + response.code());
+                    response.close();
                 }
-                response.close();
+                });
+    }
+
+    /**
+     * Parse the body in whichever format the server chose (Content-Type)
+     */
+    private void readStatus(Response response) throws IOException {
+        if (WireFormat.isCbor(response.body().contentType())) {
+            status.readCborFrom(response.body().source());
+        } else {
+            status.readFrom(response.body().source());
+        }
+    }
+
+    /**
+     * Network came back while we were in the long offline interval - tick now instead of waiting
+     */
+    private void registerNetworkCallback() {
+        ConnectivityManager cm = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null)
+            return;
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                handler.post(() -> {
+                    if (heartbeatRunnable != null && scheduler.isWaitingForNetwork()) {
+                        Log.i(TAG, "Network available - resuming heartbeat");
+                        handler.removeCallbacks(heartbeatRunnable);
+                        handler.post(heartbeatRunnable);
+                    }
+                });
             }
-        });
+        };
+        try {
+            cm.registerNetworkCallback(new NetworkRequest.Builder()
+                    .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                    .build(), networkCallback);
+        } catch (Exception e) {
+            Log.w(TAG, "Network callback unavailable", e);
+            networkCallback = null;
+        }
+    }
+
+    private void finishFlight() {
+        inFlight.set(0);
+        EmiMetrics.setGauge("heartbeat.inFlight", 0);
+    }
+
+    private void rememberStatus(String etag, boolean isLocked) {
+        boolean changed = isLocked != lastKnownLocked
+                || (etag == null ? statusEtag != null : !etag.equals(statusEtag));
+        statusEtag = etag;
+        lastKnownLocked = isLocked;
+        if (changed) {
+            getSharedPreferences("PhoneLockPrefs", Context.MODE_PRIVATE).edit()
+                    .putString(KEY_STATUS_ETAG, etag)
+                    .putBoolean(KEY_STATUS_LOCKED, isLocked)
+                    .apply();
+        }
     }
 
     private void createNotificationChannel() {
@@ -172,6 +452,21 @@ public class LockScreenService extends Service {
         if (handler != null && heartbeatRunnable != null) {
             handler.removeCallbacks(heartbeatRunnable);
         }
+        if (pushChannel != null) {
+            pushChannel.stop();
+        }
+        ReportOutbox.setFlushListener(null);
+        if (networkCallback != null) {
+            try {
+                ((ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE))
+                        .unregisterNetworkCallback(networkCallback);
+            } catch (Exception e) {
+                // Already unregistered
+            }
+        }
+        if (heartbeatThread != null) {
+            heartbeatThread.quitSafely();
+        }
     }
 
     @Override
@@ -0,0 +1,103 @@
+package com.securefinance.emilock;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * LockStateController - Applies server lock decisions only when they change something
+ *
+ * Features:
+ * - Compares the desired lock state with the state last enforced
+ * - Runs the full lock/unlock sequence only on a transition
+ * - Re-enforces when the device has drifted (kiosk dropped, prefs out of sync)
+ * - Applies server unlocks, not just locks
+ *
+ * Only EnforcementActor calls into this class, so sequences never overlap.
+ */
+public class LockStateController {
+
+    private static final String TAG = "EMI_LockState";
+
+    private static LockStateController instance;
+
+    private final Context context;
+    // null until the first decision of this process has been reconciled
+    private Boolean enforcedLocked = null;
+
+    private LockStateController(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public static synchronized LockStateController getInstance(Context context) {
+        if (instance == null) {
+            instance = new LockStateController(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Bring the device to the desired state
+     *
+     * @return true if a lock or unlock sequence was actually run
+     */
+    public synchronized boolean reconcile(boolean desiredLocked, String source) {
+        FullDeviceLockManager lockManager = FullDeviceLockManager.getInstance(context);
+
+        boolean drifted = hasDrifted(lockManager, desiredLocked);
+        boolean transition = enforcedLocked == null ? drifted : enforcedLocked != desiredLocked;
+
+        if (!transition && !drifted) {
+            enforcedLocked = desiredLocked;
+            return false;
+        }
+
+        Log.i(TAG, (transition ? "Transition" : "Drift") + " from " + source + " -> "
+                + (desiredLocked ? "LOCKED" : "UNLOCKED"));
+
+        run(lockManager, desiredLocked);
+        return true;
+    }
+
+    /**
+     * Run the full lock/unlock sequence regardless of the current state (explicit commands)
+     */
+    public synchronized void enforce(boolean desiredLocked, String source) {
+        Log.i(TAG, "Command from " + source + " -> " + (desiredLocked ? "LOCKED" : "UNLOCKED"));
+        run(FullDeviceLockManager.getInstance(context), desiredLocked);
+    }
+
+    private void run(FullDeviceLockManager lockManager, boolean desiredLocked) {
+        if (desiredLocked) {
+            lockManager.lockDeviceImmediately();
+            AlarmEngine.getInstance(context).preload();
+            LockWallpaperRenderer.getInstance(context).show();
+        } else {
+            lockManager.unlockDevice();
+            AlarmEngine.getInstance(context).release();
+            LockWallpaperRenderer.getInstance(context).clear();
+        }
+        enforcedLocked = desiredLocked;
+    }
+
+    /**
+     * Forget the enforced state so the next decision is verified against the device
+     */
+    public synchronized void invalidate() {
+        enforcedLocked = null;
+    }
+
+    /**
+     * Cheap check that the device still matches the desired state
+     * (one prefs read and one lock-task query instead of the full sequence)
+     */
+    private boolean hasDrifted(FullDeviceLockManager lockManager, boolean desiredLocked) {
+        boolean prefsLocked = lockManager.isDeviceLocked();
+        if (prefsLocked != desiredLocked)
+            return true;
+
+        if (!lockManager.isDeviceOwner())
+            return false; // Nothing we could re-apply anyway
+
+        return lockManager.isKioskModeActive() != desiredLocked;
+    }
+}
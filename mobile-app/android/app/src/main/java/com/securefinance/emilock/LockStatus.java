@@ -0,0 +1,644 @@
+package com.securefinance.emilock;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import okio.BufferedSource;
+
+/**
+ * LockStatus - Reusable holder for the compact /lock-status payload
+ *
+ * Features:
+ * - Streams the response body byte by byte (no String body, no JSONObject)
+ * - Reuses its key/value buffers across heartbeats
+ * - Only materialises a String field when its bytes actually changed
+ * - Skips unknown fields (including nested objects) so the contract can grow
+ * - Same fields from a CBOR map (application/vnd.emilock.v1+cbor) via readCborFrom()
+ *
+ * Payload: {"isLocked":true,"lockMessage":"...","supportPhone":"...","v":1700000000000}
+ * Scheduling hints: "nextDueAt" (epoch ms of the next unpaid EMI, 0 = none) and optional "pollIntervalSec"
+ * Remote config: optional "endpoints":["https://alt.example.com",...] failover list
+ * The /sync variant adds "acks":["reportId",...] for reports the server applied
+ * Offline enforcement: optional "lease" / "leaseSig" (see LockLease)
+ * Lock wallpaper inputs: "amountDue" (whole rupees) and "lender" (see LockWallpaperRenderer)
+ */
+public class LockStatus {
+
+    private static final byte[] KEY_IS_LOCKED = "isLocked".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_LOCK_MESSAGE = "lockMessage".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_SUPPORT_PHONE = "supportPhone".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_VERSION = "v".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_NEXT_DUE_AT = "nextDueAt".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_POLL_INTERVAL = "pollIntervalSec".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_ENDPOINTS = "endpoints".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_ACKS = "acks".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_LEASE = "lease".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_LEASE_SIG = "leaseSig".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_AMOUNT_DUE = "amountDue".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KEY_LENDER = "lender".getBytes(StandardCharsets.UTF_8);
+
+    // hasLockState is false when the last document lacked a literal true/false isLocked;
+    // isLocked then keeps the previous value and must not be enforced (fail closed)
+    public boolean isLocked;
+    public boolean hasLockState;
+    public String lockMessage;
+    public String supportPhone;
+    public long amountDue;
+    public String lender;
+    public long version;
+    public long nextDueAt;
+    public long pollIntervalSec;
+    // Alternate endpoints from remote config; hasEndpoints is false when the field was absent
+    public final ArrayList<String> endpoints = new ArrayList<>();
+    public boolean hasEndpoints;
+    // Report ids acknowledged by the last /sync response (empty for plain status reads)
+    public final ArrayList<String> acks = new ArrayList<>();
+    // Signed lease and its signature; null when the server sent none
+    public String lease;
+    public String leaseSig;
+
+    // Set by the last read when lockMessage, supportPhone, amountDue or lender changed
+    public boolean lockInfoChanged;
+
+    // Reusable parse state
+    private BufferedSource source;
+    private boolean cbor;
+    private int peeked = -1;
+    private byte[] keyBuf = new byte[32];
+    private int keyLen;
+    private byte[] strBuf = new byte[256];
+    private int strLen;
+    private byte[] lockMessageBytes = new byte[0];
+    private byte[] supportPhoneBytes = new byte[0];
+    private byte[] lenderBytes = new byte[0];
+    // Leases are stable for hours - keep the last Strings and reuse them while the bytes match
+    private byte[] leaseBytes = new byte[0];
+    private String lastLease;
+    private byte[] leaseSigBytes = new byte[0];
+    private String lastLeaseSig;
+
+    /**
+     * Read one status document from the stream into this object
+     */
+    public synchronized void readFrom(BufferedSource in) throws IOException {
+        begin(in, false);
+        try {
+            expect('{');
+            int c = nextNonWhitespace();
+            if (c == '}')
+                return;
+            while (true) {
+                if (c != '"')
+                    throw syntax("Expected key");
+                readKey();
+                expect(':');
+                readField();
+
+                c = nextNonWhitespace();
+                if (c == '}')
+                    return;
+                if (c != ',')
+                    throw syntax("Expected , or }");
+                c = nextNonWhitespace();
+            }
+        } finally {
+            source = null;
+        }
+    }
+
+    /**
+     * Read one status document encoded as a CBOR map
+     */
+    public synchronized void readCborFrom(BufferedSource in) throws IOException {
+        begin(in, true);
+        try {
+            int initial = nextRequired();
+            if (initial >> 5 != 5)
+                throw syntax("Expected map");
+            long count = cborLength(initial);
+            for (long i = 0; i < count; i++) {
+                int head = nextRequired();
+                if (head >> 5 != 3)
+                    throw syntax("Expected text key");
+                keyLen = 0;
+                for (long n = cborLength(head); n > 0; n--) {
+                    if (keyLen == keyBuf.length) {
+                        byte[] grown = new byte[keyBuf.length * 2];
+                        System.arraycopy(keyBuf, 0, grown, 0, keyLen);
+                        keyBuf = grown;
+                    }
+                    keyBuf[keyLen++] = (byte) nextRequired();
+                }
+                readField();
+            }
+        } finally {
+            source = null;
+        }
+    }
+
+    private void begin(BufferedSource in, boolean binary) {
+        source = in;
+        cbor = binary;
+        peeked = -1;
+        lockInfoChanged = false;
+        // isLocked and the lock screen fields keep their last known value when absent
+        hasLockState = false;
+        version = 0;
+        nextDueAt = 0;
+        pollIntervalSec = 0;
+        acks.clear();
+        endpoints.clear();
+        hasEndpoints = false;
+        lease = null;
+        leaseSig = null;
+    }
+
+    private void readField() throws IOException {
+        if (keyEquals(KEY_IS_LOCKED)) {
+            readLockState();
+        } else if (keyEquals(KEY_VERSION)) {
+            version = readLong();
+        } else if (keyEquals(KEY_NEXT_DUE_AT)) {
+            nextDueAt = readLong();
+        } else if (keyEquals(KEY_POLL_INTERVAL)) {
+            pollIntervalSec = readLong();
+        } else if (keyEquals(KEY_ENDPOINTS)) {
+            readStringArray(endpoints);
+            hasEndpoints = true;
+        } else if (keyEquals(KEY_ACKS)) {
+            readStringArray(acks);
+        } else if (keyEquals(KEY_LEASE)) {
+            if (readStringOrNull()) {
+                if (!sameBytes(leaseBytes)) {
+                    leaseBytes = copyStr();
+                    lastLease = new String(strBuf, 0, strLen, StandardCharsets.UTF_8);
+                }
+                lease = lastLease;
+            }
+        } else if (keyEquals(KEY_LEASE_SIG)) {
+            if (readStringOrNull()) {
+                if (!sameBytes(leaseSigBytes)) {
+                    leaseSigBytes = copyStr();
+                    lastLeaseSig = new String(strBuf, 0, strLen, StandardCharsets.UTF_8);
+                }
+                leaseSig = lastLeaseSig;
+            }
+        } else if (keyEquals(KEY_LOCK_MESSAGE)) {
+            if (readStringOrNull()) {
+                if (!sameBytes(lockMessageBytes)) {
+                    lockMessageBytes = copyStr();
+                    lockMessage = new String(strBuf, 0, strLen, StandardCharsets.UTF_8);
+                    lockInfoChanged = true;
+                }
+            }
+        } else if (keyEquals(KEY_SUPPORT_PHONE)) {
+            if (readStringOrNull()) {
+                if (!sameBytes(supportPhoneBytes)) {
+                    supportPhoneBytes = copyStr();
+                    supportPhone = new String(strBuf, 0, strLen, StandardCharsets.UTF_8);
+                    lockInfoChanged = true;
+                }
+            }
+        } else if (keyEquals(KEY_AMOUNT_DUE)) {
+            long due = readLong();
+            if (due != amountDue) {
+                amountDue = due;
+                lockInfoChanged = true;
+            }
+        } else if (keyEquals(KEY_LENDER)) {
+            if (readStringOrNull()) {
+                if (!sameBytes(lenderBytes)) {
+                    lenderBytes = copyStr();
+                    lender = new String(strBuf, 0, strLen, StandardCharsets.UTF_8);
+                    lockInfoChanged = true;
+                }
+            }
+        } else {
+            skipValue();
+        }
+    }
+
+    // Byte-level tokenizer
+
+    private int next() throws IOException {
+        if (peeked >= 0) {
+            int b = peeked;
+            peeked = -1;
+            return b;
+        }
+        if (source.exhausted())
+            return -1;
+        return source.readByte() & 0xFF;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = next();
+        } while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+        return c;
+    }
+
+    private void expect(char expected) throws IOException {
+        if (nextNonWhitespace() != expected)
+            throw syntax("Expected " + expected);
+    }
+
+    private void readKey() throws IOException {
+        keyLen = 0;
+        int c;
+        while ((c = next()) != '"') {
+            if (c < 0)
+                throw syntax("Unterminated key");
+            if (c == '\\')
+                c = next(); // Keys we care about never contain escapes
+            if (keyLen == keyBuf.length) {
+                byte[] grown = new byte[keyBuf.length * 2];
+                System.arraycopy(keyBuf, 0, grown, 0, keyLen);
+                keyBuf = grown;
+            }
+            keyBuf[keyLen++] = (byte) c;
+        }
+    }
+
+    private boolean keyEquals(byte[] key) {
+        if (key.length != keyLen)
+            return false;
+        for (int i = 0; i < keyLen; i++) {
+            if (keyBuf[i] != key[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Only a literal true/false is lock state; null or any other value is skipped
+     * and leaves hasLockState false, so a malformed field never unlocks
+     */
+    private void readLockState() throws IOException {
+        if (cbor) {
+            int initial = nextRequired();
+            if (initial == 0xf5 || initial == 0xf4) {
+                isLocked = initial == 0xf5;
+                hasLockState = true;
+            } else {
+                skipCbor(initial);
+            }
+            return;
+        }
+        int c = nextNonWhitespace();
+        if (c == 't') {
+            consumeLiteral("rue");
+            isLocked = true;
+            hasLockState = true;
+        } else if (c == 'f') {
+            consumeLiteral("alse");
+            isLocked = false;
+            hasLockState = true;
+        } else {
+            peeked = c;
+            skipValue();
+        }
+    }
+
+    private long readLong() throws IOException {
+        if (cbor)
+            return readCborLong();
+        int c = nextNonWhitespace();
+        if (c == 'n') {
+            consumeLiteral("ull");
+            return 0;
+        }
+        boolean negative = c == '-';
+        if (negative)
+            c = next();
+        long value = 0;
+        boolean fraction = false;
+        while (c >= 0) {
+            if (c >= '0' && c <= '9') {
+                if (!fraction)
+                    value = value * 10 + (c - '0');
+            } else if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+                fraction = true; // Integral part only
+            } else {
+                break;
+            }
+            c = next();
+        }
+        peeked = c;
+        return negative ? -value : value;
+    }
+
+    private void readStringArray(ArrayList<String> out) throws IOException {
+        if (cbor) {
+            readCborStringArray(out);
+            return;
+        }
+        int c = nextNonWhitespace();
+        if (c == 'n') {
+            consumeLiteral("ull");
+            return;
+        }
+        if (c != '[')
+            throw syntax("Expected array");
+        c = nextNonWhitespace();
+        if (c == ']')
+            return;
+        peeked = c;
+        while (true) {
+            if (readStringOrNull()) {
+                out.add(new String(strBuf, 0, strLen, StandardCharsets.UTF_8));
+            }
+            c = nextNonWhitespace();
+            if (c == ']')
+                return;
+            if (c != ',')
+                throw syntax("Expected , or ]");
+        }
+    }
+
+    /**
+     * Read a string value into strBuf; returns false for null
+     */
+    private boolean readStringOrNull() throws IOException {
+        if (cbor)
+            return readCborStringOrNull(nextRequired());
+        int c = nextNonWhitespace();
+        if (c == 'n') {
+            consumeLiteral("ull");
+            return false;
+        }
+        if (c != '"')
+            throw syntax("Expected string");
+
+        strLen = 0;
+        while ((c = next()) != '"') {
+            if (c < 0)
+                throw syntax("Unterminated string");
+            if (c == '\\') {
+                c = next();
+                switch (c) {
+                    case 'n':
+                        appendStr('\n');
+                        break;
+                    case 't':
+                        appendStr('\t');
+                        break;
+                    case 'r':
+                        appendStr('\r');
+                        break;
+                    case 'b':
+                        appendStr('\b');
+                        break;
+                    case 'f':
+                        appendStr('\f');
+                        break;
+                    case 'u':
+                        appendCodeUnit(readHex4());
+                        break;
+                    default:
+                        appendStr(c); // \" \\ \/
+                        break;
+                }
+            } else {
+                appendStr(c);
+            }
+        }
+        return true;
+    }
+
+    private int readHex4() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int c = next();
+            int digit = Character.digit(c, 16);
+            if (digit < 0)
+                throw syntax("Bad \\u escape");
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private void appendCodeUnit(int unit) throws IOException {
+        int codePoint = unit;
+        if (unit >= 0xD800 && unit <= 0xDBFF) {
+            // High surrogate - the low half must follow as another \\u escape
+            if (next() == '\\' && next() == 'u') {
+                int low = readHex4();
+                codePoint = 0x10000 + ((unit - 0xD800) << 10) + (low - 0xDC00);
+            }
+        }
+        if (codePoint < 0x80) {
+            appendStr(codePoint);
+        } else if (codePoint < 0x800) {
+            appendStr(0xC0 | (codePoint >> 6));
+            appendStr(0x80 | (codePoint & 0x3F));
+        } else if (codePoint < 0x10000) {
+            appendStr(0xE0 | (codePoint >> 12));
+            appendStr(0x80 | ((codePoint >> 6) & 0x3F));
+            appendStr(0x80 | (codePoint & 0x3F));
+        } else {
+            appendStr(0xF0 | (codePoint >> 18));
+            appendStr(0x80 | ((codePoint >> 12) & 0x3F));
+            appendStr(0x80 | ((codePoint >> 6) & 0x3F));
+            appendStr(0x80 | (codePoint & 0x3F));
+        }
+    }
+
+    private void appendStr(int b) {
+        if (strLen == strBuf.length) {
+            byte[] grown = new byte[strBuf.length * 2];
+            System.arraycopy(strBuf, 0, grown, 0, strLen);
+            strBuf = grown;
+        }
+        strBuf[strLen++] = (byte) b;
+    }
+
+    private boolean sameBytes(byte[] previous) {
+        if (previous.length != strLen)
+            return false;
+        for (int i = 0; i < strLen; i++) {
+            if (previous[i] != strBuf[i])
+                return false;
+        }
+        return true;
+    }
+
+    private byte[] copyStr() {
+        byte[] copy = new byte[strLen];
+        System.arraycopy(strBuf, 0, copy, 0, strLen);
+        return copy;
+    }
+
+    private void consumeLiteral(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (next() != rest.charAt(i))
+                throw syntax("Bad literal");
+        }
+    }
+
+    /**
+     * Skip any JSON value, including nested objects and arrays
+     */
+    private void skipValue() throws IOException {
+        if (cbor) {
+            skipCbor(nextRequired());
+            return;
+        }
+        int depth = 0;
+        boolean inString = false;
+        int c = nextNonWhitespace();
+        while (c >= 0) {
+            if (inString) {
+                if (c == '\\') {
+                    next();
+                } else if (c == '"') {
+                    inString = false;
+                    if (depth == 0)
+                        return;
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (depth == 0) {
+                    peeked = c; // Belongs to the enclosing object
+                    return;
+                }
+                depth--;
+                if (depth == 0)
+                    return;
+            } else if (depth == 0 && c == ',') {
+                peeked = c;
+                return;
+            }
+            c = next();
+        }
+    }
+
+    // CBOR decoding - same buffers, definite lengths only
+
+    private int nextRequired() throws IOException {
+        int b = next();
+        if (b < 0)
+            throw syntax("Unexpected end of input");
+        return b;
+    }
+
+    private long cborLength(int initial) throws IOException {
+        int info = initial & 0x1f;
+        if (info < 24)
+            return info;
+        int bytes;
+        if (info == 24) {
+            bytes = 1;
+        } else if (info == 25) {
+            bytes = 2;
+        } else if (info == 26) {
+            bytes = 4;
+        } else if (info == 27) {
+            bytes = 8;
+        } else {
+            throw syntax("Indefinite length");
+        }
+        long value = 0;
+        for (int i = 0; i < bytes; i++) {
+            value = (value << 8) | nextRequired();
+        }
+        return value;
+    }
+
+    private long readCborLong() throws IOException {
+        int initial = nextRequired();
+        switch (initial >> 5) {
+            case 0:
+                return cborLength(initial);
+            case 1:
+                return -1 - cborLength(initial);
+            case 7:
+                if (initial == 0xf9)
+                    return (long) halfToDouble((int) cborLength(initial));
+                if (initial == 0xfa)
+                    return (long) Float.intBitsToFloat((int) cborLength(initial));
+                if (initial == 0xfb)
+                    return (long) Double.longBitsToDouble(cborLength(initial));
+                skipCbor(initial); // Simple values (0xf8 carries one more byte), null, undefined
+                return 0;
+            default:
+                skipCbor(initial);
+                return 0;
+        }
+    }
+
+    /**
+     * IEEE 754 half precision, as backend/utils/cbor.js decodes it
+     */
+    private static double halfToDouble(int half) {
+        int exp = (half >> 10) & 0x1f;
+        int mant = half & 0x3ff;
+        double sign = (half & 0x8000) != 0 ? -1 : 1;
+        if (exp == 0)
+            return sign * Math.scalb((double) mant, -24);
+        if (exp == 31)
+            return mant == 0 ? sign * Double.POSITIVE_INFINITY : Double.NaN;
+        return sign * Math.scalb((double) (mant + 1024), exp - 25);
+    }
+
+    private boolean readCborStringOrNull(int initial) throws IOException {
+        if (initial >> 5 != 3) {
+            skipCbor(initial); // null or an unexpected type
+            return false;
+        }
+        strLen = 0;
+        for (long n = cborLength(initial); n > 0; n--) {
+            appendStr(nextRequired());
+        }
+        return true;
+    }
+
+    private void readCborStringArray(ArrayList<String> out) throws IOException {
+        int initial = nextRequired();
+        if (initial >> 5 != 4) {
+            skipCbor(initial);
+            return;
+        }
+        for (long n = cborLength(initial); n > 0; n--) {
+            if (readCborStringOrNull(nextRequired())) {
+                out.add(new String(strBuf, 0, strLen, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private void skipCbor(int initial) throws IOException {
+        int major = initial >> 5;
+        long length = cborLength(initial); // Also consumes float/double payloads
+        switch (major) {
+            case 2:
+            case 3:
+                for (; length > 0; length--)
+                    nextRequired();
+                break;
+            case 4:
+                for (; length > 0; length--)
+                    skipCbor(nextRequired());
+                break;
+            case 5:
+                for (; length > 0; length--) {
+                    skipCbor(nextRequired());
+                    skipCbor(nextRequired());
+                }
+                break;
+            case 6:
+                skipCbor(nextRequired()); // Tagged value
+                break;
+            default:
+                break; // Integers and simple values have no further content
+        }
+    }
+
+    private IOException syntax(String message) {
+        return new IOException("LockStatus parse error: " + message);
+    }
+}
@@ -0,0 +1,295 @@
+package com.securefinance.emilock;
+
+import android.app.ActivityManager;
+import android.app.WallpaperManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.SystemClock;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.WindowManager;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+import okio.ByteString;
+
+/**
+ * LockWallpaperRenderer - Draws the "device locked" wallpaper on the device itself
+ *
+ * Features:
+ * - Renders background, lender logo, lock message, amount due and support phone
+ *   on a Canvas at the panel's native resolution (no image download, works offline)
+ * - Inputs are hashed; the PNG in the cache is regenerated only when one changes
+ * - Skips the WallpaperManager call when the same image is already on the lock screen
+ * - Lock screen only (FLAG_LOCK) - the home wallpaper is left to WallpaperPipeline
+ * - Removed again on unlock
+ *
+ * Blocking - call from the enforcement or heartbeat thread, never the main thread.
+ */
+public class LockWallpaperRenderer {
+
+    private static final String TAG = "EMI_LockWallpaper";
+
+    private static final String PREFS_NAME = "PhoneLockPrefs";
+    // Input hash of the cached PNG
+    private static final String KEY_RENDERED = "LOCK_WALLPAPER_RENDERED";
+    // Input hash of the image currently on the lock screen
+    private static final String KEY_APPLIED = "LOCK_WALLPAPER_APPLIED";
+
+    // Bump when the layout below changes so cached renders are redrawn
+    private static final int TEMPLATE_VERSION = 1;
+
+    private static final int COLOR_TOP = 0xFF7F1D1D;
+    private static final int COLOR_BOTTOM = 0xFF111827;
+    private static final int COLOR_PANEL = 0x33FFFFFF;
+    private static final int COLOR_TEXT = 0xFFFFFFFF;
+    private static final int COLOR_TEXT_DIM = 0xCCFFFFFF;
+    private static final int COLOR_AMOUNT = 0xFFFCD34D;
+
+    private static LockWallpaperRenderer instance;
+
+    private final Context context;
+    private final SharedPreferences prefs;
+    private final File cacheFile;
+
+    private LockWallpaperRenderer(Context context) {
+        this.context = context.getApplicationContext();
+        this.prefs = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        File dir = new File(this.context.getCacheDir(), "wallpaper");
+        dir.mkdirs();
+        this.cacheFile = new File(dir, "lock.png");
+    }
+
+    public static synchronized LockWallpaperRenderer getInstance(Context context) {
+        if (instance == null) {
+            instance = new LockWallpaperRenderer(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Re-render after the lock info changed - only while the device is locked
+     */
+    public void refresh() {
+        if (FullDeviceLockManager.getInstance(context).isDeviceLocked()) {
+            show();
+        }
+    }
+
+    /**
+     * Put the rendered lock wallpaper on the lock screen
+     */
+    public synchronized boolean show() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            Log.d(TAG, "No separate lock screen wallpaper before Android 7 - skipping");
+            return false;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        FullDeviceLockManager lockManager = FullDeviceLockManager.getInstance(context);
+        String message = lockManager.getLockMessage();
+        String phone = lockManager.getSupportPhone();
+        long amountDue = lockManager.getAmountDue();
+        String lender = lockManager.getLenderName();
+        int[] size = screenSize();
+
+        String key = inputKey(message, phone, amountDue, lender, size[0], size[1]);
+        if (key.equals(prefs.getString(KEY_APPLIED, null))) {
+            EmiMetrics.increment("lockWallpaper.skipped");
+            Log.d(TAG, "Lock wallpaper already up to date");
+            return true;
+        }
+
+        Bitmap bitmap = null;
+        try {
+            if (key.equals(prefs.getString(KEY_RENDERED, null)) && cacheFile.exists()) {
+                bitmap = BitmapFactory.decodeFile(cacheFile.getAbsolutePath());
+                if (bitmap != null) {
+                    EmiMetrics.increment("lockWallpaper.cacheHit");
+                }
+            }
+            if (bitmap == null) {
+                bitmap = render(message, phone, amountDue, lender, size[0], size[1]);
+                store(bitmap, key);
+            }
+
+            WallpaperManager.getInstance(context).setBitmap(bitmap, null, true, WallpaperManager.FLAG_LOCK);
+            prefs.edit().putString(KEY_APPLIED, key).apply();
+            EmiMetrics.recordDuration("lockWallpaper.applyMs", SystemClock.elapsedRealtime() - start);
+            Log.i(TAG, "🖼️ Lock wallpaper applied (" + size[0] + "x" + size[1] + ")");
+            return true;
+
+        } catch (OutOfMemoryError e) {
+            EmiMetrics.increment("lockWallpaper.oom");
+            Log.e(TAG, "Out of memory rendering lock wallpaper", e);
+            return false;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to apply lock wallpaper", e);
+            return false;
+        } finally {
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+        }
+    }
+
+    /**
+     * Take the lock wallpaper off the lock screen (falls back to the home wallpaper)
+     */
+    public synchronized void clear() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N || prefs.getString(KEY_APPLIED, null) == null)
+            return;
+        try {
+            WallpaperManager.getInstance(context).clear(WallpaperManager.FLAG_LOCK);
+            prefs.edit().remove(KEY_APPLIED).apply();
+            Log.i(TAG, "Lock wallpaper removed");
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to remove lock wallpaper", e);
+        }
+    }
+
+    /**
+     * Something else replaced the lock screen wallpaper - the next show() must set it again
+     */
+    public synchronized void invalidate() {
+        prefs.edit().remove(KEY_APPLIED).apply();
+    }
+
+    private Bitmap render(String message, String phone, long amountDue, String lender, int width, int height) {
+        long start = SystemClock.elapsedRealtime();
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        // Fully opaque image - low-RAM devices lose nothing with half the bytes per pixel
+        Bitmap.Config config = am != null && am.isLowRamDevice() ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        Bitmap bitmap = Bitmap.createBitmap(width, height, config);
+        Canvas canvas = new Canvas(bitmap);
+
+        // Background
+        Paint background = new Paint();
+        background.setShader(new LinearGradient(0, 0, 0, height, COLOR_TOP, COLOR_BOTTOM, Shader.TileMode.CLAMP));
+        canvas.drawRect(0, 0, width, height, background);
+
+        // Everything scales with the panel width; start below the system clock
+        float unit = width / 100f;
+        float margin = unit * 8;
+        float y = height * 0.26f;
+
+        // Logo
+        Drawable logo = context.getPackageManager().getApplicationIcon(context.getApplicationInfo());
+        int logoSize = Math.round(unit * 20);
+        int logoLeft = (width - logoSize) / 2;
+        logo.setBounds(logoLeft, Math.round(y), logoLeft + logoSize, Math.round(y) + logoSize);
+        logo.draw(canvas);
+        y += logoSize + unit * 3;
+
+        if (lender != null && !lender.isEmpty()) {
+            y = drawText(canvas, lender, textPaint(unit * 4.5f, COLOR_TEXT_DIM, false), width, margin, y);
+        }
+        y += unit * 6;
+
+        y = drawText(canvas, "Device Locked", textPaint(unit * 8, COLOR_TEXT, true), width, margin, y);
+        y += unit * 3;
+        y = drawText(canvas, message, textPaint(unit * 4.5f, COLOR_TEXT_DIM, false), width, margin, y);
+        y += unit * 7;
+
+        // Amount due panel
+        if (amountDue > 0) {
+            NumberFormat rupees = NumberFormat.getCurrencyInstance(new Locale("en", "IN"));
+            rupees.setMaximumFractionDigits(0);
+            TextPaint labelPaint = textPaint(unit * 4, COLOR_TEXT_DIM, false);
+            TextPaint amountPaint = textPaint(unit * 10, COLOR_AMOUNT, true);
+            float padding = unit * 4;
+            float panelTop = y;
+            float panelBottom = panelTop + padding * 2 + labelPaint.getFontSpacing() + amountPaint.getFontSpacing();
+            Paint panel = new Paint(Paint.ANTI_ALIAS_FLAG);
+            panel.setColor(COLOR_PANEL);
+            canvas.drawRoundRect(new RectF(margin, panelTop, width - margin, panelBottom), unit * 3, unit * 3, panel);
+
+            y = drawText(canvas, "Amount Due", labelPaint, width, margin, panelTop + padding);
+            drawText(canvas, rupees.format(amountDue), amountPaint, width, margin, y);
+            y = panelBottom + unit * 7;
+        }
+
+        drawText(canvas, "Pay now or call " + phone, textPaint(unit * 4.5f, COLOR_TEXT, true), width, margin, y);
+
+        EmiMetrics.recordDuration("lockWallpaper.renderMs", SystemClock.elapsedRealtime() - start);
+        return bitmap;
+    }
+
+    private float drawText(Canvas canvas, String text, TextPaint paint, int width, float margin, float y) {
+        int textWidth = Math.round(width - margin * 2);
+        StaticLayout layout = StaticLayout.Builder.obtain(text, 0, text.length(), paint, textWidth)
+                .setAlignment(Layout.Alignment.ALIGN_CENTER)
+                .build();
+        canvas.save();
+        canvas.translate(margin, y);
+        layout.draw(canvas);
+        canvas.restore();
+        return y + layout.getHeight();
+    }
+
+    private TextPaint textPaint(float size, int color, boolean bold) {
+        TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTextSize(size);
+        paint.setColor(color);
+        paint.setTypeface(bold ? Typeface.DEFAULT_BOLD : Typeface.DEFAULT);
+        return paint;
+    }
+
+    /**
+     * Keep the render for the next show() (process restart, lock after unlock)
+     */
+    private void store(Bitmap bitmap, String key) {
+        File temp = new File(cacheFile.getParentFile(), "lock.tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } catch (Exception e) {
+            temp.delete();
+            Log.w(TAG, "Could not cache lock wallpaper: " + e.getMessage());
+            return;
+        }
+        if (temp.renameTo(cacheFile)) {
+            prefs.edit().putString(KEY_RENDERED, key).apply();
+        } else {
+            temp.delete();
+        }
+    }
+
+    private static String inputKey(String message, String phone, long amountDue, String lender, int width,
+            int height) {
+        String inputs = TEMPLATE_VERSION + "\n" + width + "x" + height + "\n" + amountDue + "\n"
+                + message + "\n" + phone + "\n" + (lender != null ? lender : "");
+        return ByteString.encodeUtf8(inputs).sha1().hex();
+    }
+
+    /**
+     * Native panel size in portrait, including the area behind the system bars
+     */
+    private int[] screenSize() {
+        DisplayMetrics metrics = new DisplayMetrics();
+        WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        if (windowManager != null) {
+            windowManager.getDefaultDisplay().getRealMetrics(metrics);
+        } else {
+            metrics = context.getResources().getDisplayMetrics();
+        }
+        int width = Math.min(metrics.widthPixels, metrics.heightPixels);
+        int height = Math.max(metrics.widthPixels, metrics.heightPixels);
+        return new int[] { width, height };
+    }
+}
@@ -57,7 +57,7 @@ public class MainActivity extends ReactActivity {
         super.onCreate(savedInstanceState);
         Log.i(TAG, "MainActivity created");
 
-        lockManager = new FullDeviceLockManager(this);
+        lockManager = FullDeviceLockManager.getInstance(this);
 
         // Check lock status
         SharedPreferences prefs = getSharedPreferences("PhoneLockPrefs", Context.MODE_PRIVATE);
@@ -107,6 +107,17 @@ public class MainActivity extends ReactActivity {
             isLocked = true;
             setupLockScreen();
             startKioskMode();
+            if (hasWindowFocus()) {
+                TransitionTimer.lockScreenShown(); // Already in front - no focus change will come
+            }
+        }
+    }
+
+    @Override
+    public void onWindowFocusChanged(boolean hasFocus) {
+        super.onWindowFocusChanged(hasFocus);
+        if (hasFocus && isLocked) {
+            TransitionTimer.lockScreenShown();
         }
     }
 
@@ -169,9 +180,7 @@ public class MainActivity extends ReactActivity {
                     Log.w(TAG, "🔒 Power button blocked");
                     if (event.getAction() == KeyEvent.ACTION_DOWN) {
                         // Trigger alarm
-                        if (lockManager != null) {
-                            lockManager.startPowerButtonAlarm();
-                        }
+                        EnforcementActor.getInstance(this).startAlarm("powerButton");
                         return true; // Block the event
                     }
                     return true;
@@ -5,19 +5,33 @@ import android.content.SharedPreferences;
 import android.util.Log;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 /**
  * OfflineLockCache - Manages lock commands when device is offline
  * 
  * Features:
  * - Queue lock commands when offline
- * - Process commands when connectivity restored
+ * - Process commands when connectivity restored, coalesced to the net command per
+ *   family (lock/unlock, alarm/stopAlarm) and replayed most severe first
  * - Support for SMS-based lock commands
- * - Persistent storage across reboots
+ * - Persistent storage across reboots: commands and pending reports live in
+ *   append-only, checksummed record logs (filesDir/offline, see RecordLog)
+ * - Both queues are parsed once per process and served from memory; writes go
+ *   behind in batches, queued commands are fsynced before queueCommand returns
  */
 public class OfflineLockCache {
 
@@ -29,6 +43,21 @@ public class OfflineLockCache {
     private static final String KEY_LAST_SYNC = "LAST_SYNC_TIME";
     private static final String KEY_PENDING_REPORTS = "PENDING_REPORTS";
 
+    private static final String LOG_DIR = "offline";
+    private static final String COMMAND_LOG = "commands.log";
+    private static final String REPORT_LOG = "reports.log";
+
+    // Bound on queued commands; coalescing keeps one per family, so only a flood
+    // of unknown commands can reach it
+    private static final int MAX_COMMANDS = 16;
+    // Replay order by severity, most severe first; unknown commands run last
+    private static final List<String> SEVERITY_ORDER = Arrays.asList("lock", "alarm", "unlock", "stopAlarm");
+
+    // Shared by every instance: reports are appended by receivers and acknowledged
+    // from the heartbeat thread, and a log file must only be open once per process
+    private static Queue commandQueue;
+    private static Queue reportQueue;
+
     private Context context;
     private SharedPreferences prefs;
 
@@ -42,22 +71,42 @@ public class OfflineLockCache {
      */
     public void queueCommand(String command, String params, String source) {
         try {
-            JSONArray queue = getCommandQueue();
-
             JSONObject cmd = new JSONObject();
             cmd.put("command", command);
             cmd.put("params", params);
             cmd.put("source", source); // "sms", "backend", "local"
             cmd.put("timestamp", System.currentTimeMillis());
-            cmd.put("processed", false);
-
-            queue.put(cmd);
 
-            prefs.edit()
-                    .putString(KEY_COMMAND_QUEUE, queue.toString())
-                    .apply();
+            Queue queue = commands(context);
+            List<String> superseded = new ArrayList<>();
+            boolean cancelled = false;
+            synchronized (queue) {
+                // At most one queued command per family: a newer one replaces it,
+                // or cancels it out (stopAlarm after alarm)
+                for (Map.Entry<String, JSONObject> entry : queue.peek(Integer.MAX_VALUE)) {
+                    String queued = entry.getValue().optString("command");
+                    if (family(queued).equals(family(command))) {
+                        superseded.add(entry.getKey());
+                        cancelled |= cancels(queued, command);
+                    }
+                }
+                if (!cancelled) {
+                    // Lock-critical: durable before the caller acts on it
+                    queue.add(UUID.randomUUID().toString(), cmd, true);
+                }
+                queue.remove(superseded);
+                EmiMetrics.add("offlineCache.coalesced", superseded.size());
+                if (queue.size() > MAX_COMMANDS) {
+                    evictLeastSevere(queue);
+                }
+            }
 
-            Log.i(TAG, "Command queued: " + command + " from " + source);
+            if (cancelled) {
+                Log.i(TAG, "Command " + command + " from " + source + " cancelled a queued one");
+            } else {
+                Log.i(TAG, "Command queued: " + command + " from " + source
+                        + (superseded.isEmpty() ? "" : " (replaced " + superseded.size() + ")"));
+            }
 
         } catch (Exception e) {
             Log.e(TAG, "Failed to queue command", e);
@@ -66,49 +115,45 @@ public class OfflineLockCache {
 
     /**
      * Process all pending commands
+     * Runs from memory and replays only the net command of each family, most
+     * severe first - at most one transition per family. Everything queued is
+     * tombstoned in one batch.
      */
-    public void processQueue(FullDeviceLockManager lockManager) {
+    public void processQueue() {
         try {
-            JSONArray queue = getCommandQueue();
-            boolean hasProcessed = false;
-
-            for (int i = 0; i < queue.length(); i++) {
-                JSONObject cmd = queue.getJSONObject(i);
-
-                if (!cmd.optBoolean("processed", false)) {
-                    String command = cmd.getString("command");
-
-                    Log.i(TAG, "Processing queued command: " + command);
-
-                    switch (command) {
-                        case "lock":
-                            lockManager.lockDeviceImmediately();
-                            break;
-                        case "unlock":
-                            lockManager.unlockDevice();
-                            break;
-                        case "alarm":
-                            lockManager.startPowerButtonAlarm();
-                            break;
-                        case "stopAlarm":
-                            lockManager.stopPowerButtonAlarm();
-                            break;
-                    }
-
-                    cmd.put("processed", true);
-                    cmd.put("processedAt", System.currentTimeMillis());
-                    hasProcessed = true;
-                }
+            Queue queue = commands(context);
+            if (queue.size() == 0)
+                return;
+
+            EnforcementActor enforcer = EnforcementActor.getInstance(context);
+            List<Map.Entry<String, JSONObject>> queued = queue.peek(Integer.MAX_VALUE);
+            List<String> processed = new ArrayList<>();
+            for (Map.Entry<String, JSONObject> entry : queued) {
+                processed.add(entry.getKey());
             }
-
-            if (hasProcessed) {
-                prefs.edit()
-                        .putString(KEY_COMMAND_QUEUE, queue.toString())
-                        .apply();
+            List<String> net = coalesce(queued);
+            EmiMetrics.add("offlineCache.coalesced", queued.size() - net.size());
+
+            for (String command : net) {
+                Log.i(TAG, "Processing queued command: " + command);
+
+                switch (command) {
+                    case "lock":
+                        enforcer.lock("offlineQueue");
+                        break;
+                    case "unlock":
+                        enforcer.unlock("offlineQueue");
+                        break;
+                    case "alarm":
+                        enforcer.startAlarm("offlineQueue");
+                        break;
+                    case "stopAlarm":
+                        enforcer.stopAlarm("offlineQueue");
+                        break;
+                }
             }
 
-            // Clean up old processed commands (older than 24 hours)
-            cleanupOldCommands();
+            queue.remove(processed);
 
         } catch (Exception e) {
             Log.e(TAG, "Failed to process queue", e);
@@ -159,7 +204,8 @@ public class OfflineLockCache {
      * Parse and execute SMS command
      * Format: LOCK:TOKEN or UNLOCK:TOKEN or ALARM:TOKEN
      */
-    public boolean executeSmsCommand(String smsBody, FullDeviceLockManager lockManager) {
+    public boolean executeSmsCommand(String smsBody) {
+        EnforcementActor enforcer = EnforcementActor.getInstance(context);
         try {
             String[] parts = smsBody.trim().toUpperCase().split(":");
             if (parts.length != 2) {
@@ -176,7 +222,7 @@ public class OfflineLockCache {
                     if (validateLockToken(token)) {
                         Log.i(TAG, "🔒 SMS LOCK command validated");
                         queueCommand("lock", null, "sms");
-                        lockManager.lockDeviceImmediately();
+                        enforcer.lockReported("sms", reportSmsLock());
                         return true;
                     }
                     break;
@@ -186,7 +232,7 @@ public class OfflineLockCache {
                     if (validateUnlockToken(token)) {
                         Log.i(TAG, "🔓 SMS UNLOCK command validated");
                         queueCommand("unlock", null, "sms");
-                        lockManager.unlockDevice();
+                        enforcer.unlock("sms");
                         return true;
                     }
                     break;
@@ -195,7 +241,7 @@ public class OfflineLockCache {
                 case "EMI_ALARM":
                     if (validateLockToken(token)) {
                         Log.i(TAG, "🚨 SMS ALARM command validated");
-                        lockManager.startPowerButtonAlarm();
+                        enforcer.startAlarm("sms");
                         return true;
                     }
                     break;
@@ -222,38 +268,56 @@ public class OfflineLockCache {
 
     /**
      * Add a pending report for when connectivity is restored
+     * Each report gets an id so the server can acknowledge it individually
+     *
+     * @return the report id, null when it could not be queued
      */
-    public void addPendingReport(String type, JSONObject data) {
+    public String addPendingReport(String type, JSONObject data) {
         try {
-            JSONArray reports = getPendingReports();
-
+            String id = UUID.randomUUID().toString();
             JSONObject report = new JSONObject();
+            report.put("id", id);
             report.put("type", type);
             report.put("data", data);
             report.put("timestamp", System.currentTimeMillis());
 
-            reports.put(report);
-
-            prefs.edit()
-                    .putString(KEY_PENDING_REPORTS, reports.toString())
-                    .apply();
+            reports(context).add(id, report, false);
 
             Log.i(TAG, "Pending report added: " + type);
+            return id;
 
         } catch (Exception e) {
             Log.e(TAG, "Failed to add pending report", e);
+            return null;
+        }
+    }
+
+    /**
+     * Report an SMS lock to the backend (sent with the next heartbeat)
+     *
+     * @return the report id, null when it could not be queued
+     */
+    public String reportSmsLock() {
+        try {
+            JSONObject data = new JSONObject();
+            data.put("event", "SMS_LOCK");
+            data.put("timestamp", System.currentTimeMillis());
+            data.put("action", "LOCKED");
+            return ReportOutbox.enqueue(context, "security_event", data, true);
+        } catch (JSONException e) {
+            Log.e(TAG, "Failed to queue SMS lock report", e);
+            return null;
         }
     }
 
     /**
-     * Get all pending reports for sync
+     * Get pending reports for sync (oldest first, at most maxReports)
      */
-    public List<JSONObject> getPendingReportsForSync() {
+    public List<JSONObject> getPendingReportsForSync(int maxReports) {
         List<JSONObject> reports = new ArrayList<>();
         try {
-            JSONArray arr = getPendingReports();
-            for (int i = 0; i < arr.length(); i++) {
-                reports.add(arr.getJSONObject(i));
+            for (Map.Entry<String, JSONObject> entry : reports(context).peek(maxReports)) {
+                reports.add(entry.getValue());
             }
         } catch (Exception e) {
             Log.e(TAG, "Failed to get pending reports", e);
@@ -261,11 +325,38 @@ public class OfflineLockCache {
         return reports;
     }
 
+    public boolean hasPendingReports() {
+        try {
+            return reports(context).size() > 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Remove only the reports the server acknowledged
+     */
+    public void acknowledgeReports(Collection<String> ids) {
+        if (ids.isEmpty())
+            return;
+        try {
+            Queue queue = reports(context);
+            queue.remove(ids);
+            Log.i(TAG, "Acknowledged " + ids.size() + " reports, " + queue.size() + " pending");
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to acknowledge reports", e);
+        }
+    }
+
     /**
      * Clear pending reports after successful sync
      */
     public void clearPendingReports() {
-        prefs.edit().putString(KEY_PENDING_REPORTS, "[]").apply();
+        try {
+            reports(context).clear();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to clear pending reports", e);
+        }
         Log.i(TAG, "Pending reports cleared");
     }
 
@@ -297,44 +388,201 @@ public class OfflineLockCache {
 
     // Private helpers
 
-    private JSONArray getCommandQueue() {
-        try {
-            String json = prefs.getString(KEY_COMMAND_QUEUE, "[]");
-            return new JSONArray(json);
-        } catch (Exception e) {
-            return new JSONArray();
+    /**
+     * Commands that act on the same piece of state
+     */
+    private static String family(String command) {
+        switch (command) {
+            case "lock":
+            case "unlock":
+                return "lock";
+            case "alarm":
+            case "stopAlarm":
+                return "alarm";
+            default:
+                return command;
         }
     }
 
-    private JSONArray getPendingReports() {
-        try {
-            String json = prefs.getString(KEY_PENDING_REPORTS, "[]");
-            return new JSONArray(json);
-        } catch (Exception e) {
-            return new JSONArray();
+    /**
+     * A later command that undoes an earlier one, leaving nothing to do
+     * Only a stop cancels a queued alarm; an alarm after a stop replaces the stop
+     */
+    private static boolean cancels(String earlier, String later) {
+        return earlier.equals("alarm") && later.equals("stopAlarm");
+    }
+
+    /**
+     * Lower runs first: lockdown before anything else, relief last
+     */
+    private static int severity(String command) {
+        int rank = SEVERITY_ORDER.indexOf(command);
+        return rank >= 0 ? rank : SEVERITY_ORDER.size();
+    }
+
+    /**
+     * Net command per family, in the order the queue was written, sorted by severity
+     */
+    private static List<String> coalesce(List<Map.Entry<String, JSONObject>> queued) {
+        LinkedHashMap<String, String> net = new LinkedHashMap<>();
+        for (Map.Entry<String, JSONObject> entry : queued) {
+            String command = entry.getValue().optString("command");
+            String family = family(command);
+            String earlier = net.get(family);
+            if (earlier != null && cancels(earlier, command)) {
+                net.remove(family);
+            } else {
+                net.put(family, command);
+            }
         }
+        List<String> commands = new ArrayList<>(net.values());
+        Collections.sort(commands, (a, b) -> Integer.compare(severity(a), severity(b)));
+        return commands;
     }
 
-    private void cleanupOldCommands() {
-        try {
-            JSONArray queue = getCommandQueue();
-            JSONArray newQueue = new JSONArray();
+    /**
+     * Queue over its bound - drop the oldest of the least severe commands
+     */
+    private static void evictLeastSevere(Queue queue) throws IOException {
+        String victim = null;
+        int worst = -1;
+        for (Map.Entry<String, JSONObject> entry : queue.peek(Integer.MAX_VALUE)) {
+            int rank = severity(entry.getValue().optString("command"));
+            if (rank > worst) {
+                worst = rank;
+                victim = entry.getKey();
+            }
+        }
+        if (victim != null) {
+            queue.remove(Collections.singletonList(victim));
+            EmiMetrics.increment("offlineCache.evicted");
+            Log.w(TAG, "Command queue full - dropped " + victim);
+        }
+    }
+
+    private static synchronized Queue commands(Context context) throws IOException {
+        if (commandQueue == null) {
+            commandQueue = new Queue("commands", logFile(context, COMMAND_LOG));
+            migrate(context, KEY_COMMAND_QUEUE, commandQueue);
+        }
+        return commandQueue;
+    }
 
-            long cutoff = System.currentTimeMillis() - (24 * 60 * 60 * 1000); // 24 hours
+    private static synchronized Queue reports(Context context) throws IOException {
+        if (reportQueue == null) {
+            reportQueue = new Queue("reports", logFile(context, REPORT_LOG));
+            migrate(context, KEY_PENDING_REPORTS, reportQueue);
+        }
+        return reportQueue;
+    }
+
+    private static File logFile(Context context, String name) {
+        File dir = new File(context.getApplicationContext().getFilesDir(), LOG_DIR);
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.w(TAG, "Could not create " + dir);
+        }
+        return new File(dir, name);
+    }
 
-            for (int i = 0; i < queue.length(); i++) {
-                JSONObject cmd = queue.getJSONObject(i);
-                if (cmd.optLong("timestamp", 0) > cutoff) {
-                    newQueue.put(cmd);
+    /**
+     * One-time move of a JSON array queue from SharedPreferences into its log
+     */
+    private static void migrate(Context context, String key, Queue queue) throws IOException {
+        SharedPreferences prefs = context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (!prefs.contains(key))
+            return;
+        int moved = 0;
+        try {
+            JSONArray entries = new JSONArray(prefs.getString(key, "[]"));
+            for (int i = 0; i < entries.length(); i++) {
+                JSONObject entry = entries.getJSONObject(i);
+                if (entry.optBoolean("processed", false))
+                    continue;
+                String id = entry.optString("id", "");
+                if (id.isEmpty()) {
+                    // Queued before entries carried ids
+                    id = UUID.randomUUID().toString();
+                    if (key.equals(KEY_PENDING_REPORTS)) {
+                        entry.put("id", id);
+                    }
                 }
+                queue.add(id, entry, false);
+                moved++;
             }
+        } catch (JSONException e) {
+            Log.e(TAG, "Dropping unreadable " + key, e);
+        }
+        // The prefs copy goes only once the log holds everything
+        queue.log.flush(true);
+        prefs.edit().remove(key).commit();
+        Log.i(TAG, "Migrated " + moved + " entries of " + key + " to " + LOG_DIR);
+    }
 
-            prefs.edit()
-                    .putString(KEY_COMMAND_QUEUE, newQueue.toString())
-                    .apply();
+    /**
+     * Parsed, in-memory view of one record log - loaded once per process
+     *
+     * Reads never touch disk or the JSON parser; mutations update memory and are
+     * written behind by the log, except durable adds which are fsynced first.
+     * Parse/serialize counts land in EmiMetrics ("offlineCache.parses" / ".serializes").
+     */
+    private static final class Queue {
+        private final String name;
+        private final RecordLog log;
+        private final LinkedHashMap<String, JSONObject> entries = new LinkedHashMap<>();
+
+        Queue(String name, File file) throws IOException {
+            this.name = name;
+            this.log = new RecordLog(file);
+            for (Map.Entry<String, String> record : log.read(Integer.MAX_VALUE)) {
+                try {
+                    entries.put(record.getKey(), new JSONObject(record.getValue()));
+                } catch (JSONException e) {
+                    Log.w(TAG, "Skipping unreadable " + name + " entry " + record.getKey());
+                }
+            }
+            EmiMetrics.add("offlineCache.parses", entries.size());
+            publish();
+        }
 
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to cleanup old commands", e);
+        synchronized void add(String id, JSONObject entry, boolean durable) throws IOException {
+            log.append(id, entry.toString(), durable);
+            EmiMetrics.increment("offlineCache.serializes");
+            entries.put(id, entry);
+            publish();
+        }
+
+        /**
+         * Oldest entries first, at most max of them
+         */
+        synchronized List<Map.Entry<String, JSONObject>> peek(int max) {
+            List<Map.Entry<String, JSONObject>> out = new ArrayList<>();
+            for (Map.Entry<String, JSONObject> e : entries.entrySet()) {
+                if (out.size() >= max)
+                    break;
+                out.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getValue()));
+            }
+            return out;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized void remove(Collection<String> ids) throws IOException {
+            entries.keySet().removeAll(ids);
+            log.removeAll(ids);
+            publish();
+        }
+
+        synchronized void clear() throws IOException {
+            entries.clear();
+            log.clear();
+            publish();
+        }
+
+        private void publish() {
+            EmiMetrics.setGauge("offlineCache." + name, entries.size());
         }
     }
 }
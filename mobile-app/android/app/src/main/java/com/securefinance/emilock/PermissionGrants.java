@@ -0,0 +1,120 @@
+package com.securefinance.emilock;
+
+import android.app.admin.DevicePolicyManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * PermissionGrants - Keeps our runtime permissions granted by policy, touching only the delta
+ *
+ * Features:
+ * - Desired grants are declared once (DESIRED); only those the installed manifest
+ *   actually requests are considered
+ * - Current state comes from a single PackageInfo read (requestedPermissionsFlags),
+ *   not one query per permission
+ * - setPermissionGrantState only for permissions that are not granted yet
+ * - Cheap enough to run on every service start, so an app update (new permissions)
+ *   or a revoked grant is picked up without re-granting everything
+ * - Returns and logs the grants it actually applied
+ */
+public class PermissionGrants {
+
+    private static final String TAG = "EMI_Permissions";
+
+    private static final List<String> DESIRED = Arrays.asList(
+            "android.permission.READ_PHONE_STATE",
+            "android.permission.READ_SMS",
+            "android.permission.RECEIVE_SMS",
+            "android.permission.CAMERA",
+            "android.permission.ACCESS_FINE_LOCATION",
+            "android.permission.ACCESS_COARSE_LOCATION",
+            "android.permission.READ_CONTACTS",
+            "android.permission.WRITE_CONTACTS",
+            "android.permission.CALL_PHONE",
+            "android.permission.READ_CALL_LOG",
+            "android.permission.WRITE_CALL_LOG",
+            "android.permission.READ_EXTERNAL_STORAGE",
+            "android.permission.WRITE_EXTERNAL_STORAGE");
+
+    private static PermissionGrants instance;
+
+    private final Context context;
+    private final DevicePolicyManager dpm;
+    private final ComponentName adminComponent;
+
+    private PermissionGrants(Context context) {
+        this.context = context.getApplicationContext();
+        this.dpm = (DevicePolicyManager) this.context.getSystemService(Context.DEVICE_POLICY_SERVICE);
+        this.adminComponent = new ComponentName(this.context, DeviceAdminReceiver.class);
+    }
+
+    public static synchronized PermissionGrants getInstance(Context context) {
+        if (instance == null) {
+            instance = new PermissionGrants(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Grant every desired permission the manifest declares and that is not granted yet
+     *
+     * @return the permissions granted by this call (empty when nothing had drifted)
+     */
+    public synchronized List<String> ensureGranted() {
+        List<String> applied = new ArrayList<>();
+        long start = SystemClock.elapsedRealtime();
+        try {
+            List<String> missing = findMissing();
+            for (String permission : missing) {
+                boolean granted = dpm.setPermissionGrantState(adminComponent, context.getPackageName(),
+                        permission, DevicePolicyManager.PERMISSION_GRANT_STATE_GRANTED);
+                if (granted) {
+                    applied.add(permission);
+                } else {
+                    Log.w(TAG, "Could not grant " + permission);
+                }
+            }
+
+            EmiMetrics.add("permissions.binderCalls", missing.size());
+            EmiMetrics.setGauge("permissions.applied", applied.size());
+            EmiMetrics.recordDuration("permissions.ensureMs", SystemClock.elapsedRealtime() - start);
+            if (missing.isEmpty()) {
+                Log.d(TAG, "All declared permissions already granted");
+            } else {
+                Log.i(TAG, "Granted " + applied.size() + "/" + missing.size() + ": " + applied);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to grant permissions", e);
+        }
+        return applied;
+    }
+
+    /**
+     * Desired permissions the manifest declares but that are not currently granted
+     */
+    private List<String> findMissing() throws PackageManager.NameNotFoundException {
+        PackageInfo info = context.getPackageManager()
+                .getPackageInfo(context.getPackageName(), PackageManager.GET_PERMISSIONS);
+        List<String> missing = new ArrayList<>();
+        if (info.requestedPermissions == null)
+            return missing;
+
+        for (int i = 0; i < info.requestedPermissions.length; i++) {
+            String permission = info.requestedPermissions[i];
+            boolean granted = (info.requestedPermissionsFlags[i]
+                    & PackageInfo.REQUESTED_PERMISSION_GRANTED) != 0;
+            if (!granted && DESIRED.contains(permission)) {
+                missing.add(permission);
+            }
+        }
+        return missing;
+    }
+}
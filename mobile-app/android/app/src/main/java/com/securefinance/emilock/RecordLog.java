@@ -0,0 +1,317 @@
+package com.securefinance.emilock;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * RecordLog - Append-only, checksummed log of id -> payload records
+ *
+ * Features:
+ * - O(1) append, nothing else is rewritten
+ * - Write-behind: plain appends and tombstones collect in a buffer that is written out
+ *   in one batch shortly after; a durable append writes the buffer plus its own record
+ *   and fsyncs before returning
+ * - Removal appends a tombstone; the in-memory index only keeps live record offsets
+ * - Every record carries a CRC32; on open the file is scanned and a torn or corrupt
+ *   tail (power loss mid-write) is cut off at the last good record
+ * - Compaction copies live records to a new file in the background once dead bytes
+ *   outweigh live ones, then swaps it in with a rename
+ *
+ * Record layout: [int bodyLength][int crc32(body)][body]
+ *   body = [byte kind][short idLength][id utf-8][payload utf-8]
+ */
+public final class RecordLog {
+
+    private static final String TAG = "EMI_RecordLog";
+
+    private static final byte KIND_PUT = 1;
+    private static final byte KIND_TOMBSTONE = 2;
+    private static final int HEADER = 8;
+    private static final int MAX_BODY = 1024 * 1024;
+    private static final long COMPACT_MIN_DEAD_BYTES = 64 * 1024;
+    private static final long WRITE_BEHIND_MS = 250;
+    private static final int WRITE_BEHIND_MAX_BYTES = 64 * 1024;
+
+    // Write-behind flushes and compaction for every log
+    private static final ScheduledExecutorService io =
+            Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "EMI_RecordLog"));
+
+    private final File file;
+    private RandomAccessFile raf;
+    // Live records in append order: id -> {body offset, body length}
+    private final LinkedHashMap<String, long[]> index = new LinkedHashMap<>();
+    private long liveBytes;
+    private boolean compactionScheduled;
+
+    // Records not written yet; they sit logically at [raf.length(), raf.length() + size)
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private boolean flushScheduled;
+
+    public RecordLog(File file) throws IOException {
+        this.file = file;
+        open();
+    }
+
+    /**
+     * @param durable write and fsync before returning (survives power loss);
+     *                otherwise the record is written behind within WRITE_BEHIND_MS
+     */
+    public synchronized void append(String id, String payload, boolean durable) throws IOException {
+        long offset = raf.length() + pending.size();
+        byte[] record = encode(KIND_PUT, id, payload);
+        pending.write(record);
+        long[] previous = index.remove(id);
+        if (previous != null) {
+            liveBytes -= HEADER + previous[1];
+        }
+        index.put(id, new long[] { offset + HEADER, record.length - HEADER });
+        liveBytes += record.length;
+
+        if (durable) {
+            flush(true);
+        } else {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Tombstone a batch of records (written behind)
+     */
+    public synchronized void removeAll(Collection<String> ids) throws IOException {
+        for (String id : ids) {
+            long[] entry = index.remove(id);
+            if (entry != null) {
+                liveBytes -= HEADER + entry[1];
+                pending.write(encode(KIND_TOMBSTONE, id, ""));
+            }
+        }
+        scheduleFlush();
+    }
+
+    public synchronized void clear() throws IOException {
+        index.clear();
+        liveBytes = 0;
+        pending.reset();
+        raf.setLength(0);
+        raf.getFD().sync();
+    }
+
+    /**
+     * Write out everything buffered in one write
+     *
+     * @param sync also fsync the file
+     */
+    public synchronized void flush(boolean sync) throws IOException {
+        if (pending.size() > 0) {
+            raf.seek(raf.length());
+            raf.write(pending.toByteArray());
+            EmiMetrics.increment("recordLog.flushes");
+            pending.reset();
+        }
+        if (sync) {
+            raf.getFD().sync();
+        }
+        maybeCompact();
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Oldest live records first, at most max of them
+     */
+    public synchronized List<Map.Entry<String, String>> read(int max) throws IOException {
+        List<Map.Entry<String, String>> out = new ArrayList<>();
+        for (Map.Entry<String, long[]> e : index.entrySet()) {
+            if (out.size() >= max)
+                break;
+            out.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), readPayload(e.getValue())));
+        }
+        return out;
+    }
+
+    // Internals
+
+    private void scheduleFlush() throws IOException {
+        if (pending.size() >= WRITE_BEHIND_MAX_BYTES) {
+            flush(false);
+            return;
+        }
+        if (flushScheduled || pending.size() == 0)
+            return;
+        flushScheduled = true;
+        io.schedule(() -> {
+            synchronized (this) {
+                flushScheduled = false;
+                try {
+                    flush(false);
+                } catch (IOException e) {
+                    Log.e(TAG, "Write-behind of " + file.getName() + " failed", e);
+                }
+            }
+        }, WRITE_BEHIND_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private String readPayload(long[] entry) throws IOException {
+        byte[] body = new byte[(int) entry[1]];
+        long flushed = raf.length();
+        if (entry[0] >= flushed) {
+            byte[] buffered = pending.toByteArray();
+            System.arraycopy(buffered, (int) (entry[0] - flushed), body, 0, body.length);
+        } else {
+            raf.seek(entry[0]);
+            raf.readFully(body);
+        }
+        int idLength = ((body[1] & 0xFF) << 8) | (body[2] & 0xFF);
+        int start = 3 + idLength;
+        return new String(body, start, body.length - start, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] encode(byte kind, String id, String payload) {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = 3 + idBytes.length + payloadBytes.length;
+        byte[] record = new byte[HEADER + bodyLength];
+        int p = HEADER;
+        record[p++] = kind;
+        record[p++] = (byte) (idBytes.length >> 8);
+        record[p++] = (byte) idBytes.length;
+        System.arraycopy(idBytes, 0, record, p, idBytes.length);
+        p += idBytes.length;
+        System.arraycopy(payloadBytes, 0, record, p, payloadBytes.length);
+
+        CRC32 crc = new CRC32();
+        crc.update(record, HEADER, bodyLength);
+        putInt(record, 0, bodyLength);
+        putInt(record, 4, (int) crc.getValue());
+        return record;
+    }
+
+    private static void putInt(byte[] b, int at, int v) {
+        b[at] = (byte) (v >>> 24);
+        b[at + 1] = (byte) (v >>> 16);
+        b[at + 2] = (byte) (v >>> 8);
+        b[at + 3] = (byte) v;
+    }
+
+    /**
+     * Scan the file, rebuild the index and cut off a torn tail
+     */
+    private void open() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        index.clear();
+        liveBytes = 0;
+
+        long length = raf.length();
+        long offset = 0;
+        byte[] header = new byte[HEADER];
+        CRC32 crc = new CRC32();
+        while (offset + HEADER <= length) {
+            raf.seek(offset);
+            raf.readFully(header);
+            int bodyLength = ((header[0] & 0xFF) << 24) | ((header[1] & 0xFF) << 16)
+                    | ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+            int expectedCrc = ((header[4] & 0xFF) << 24) | ((header[5] & 0xFF) << 16)
+                    | ((header[6] & 0xFF) << 8) | (header[7] & 0xFF);
+            if (bodyLength < 3 || bodyLength > MAX_BODY || offset + HEADER + bodyLength > length)
+                break;
+            byte[] body = new byte[bodyLength];
+            raf.readFully(body);
+            crc.reset();
+            crc.update(body, 0, bodyLength);
+            if ((int) crc.getValue() != expectedCrc)
+                break;
+
+            int idLength = ((body[1] & 0xFF) << 8) | (body[2] & 0xFF);
+            if (3 + idLength > bodyLength)
+                break;
+            String id = new String(body, 3, idLength, StandardCharsets.UTF_8);
+            long[] previous = index.remove(id);
+            if (previous != null) {
+                liveBytes -= HEADER + previous[1];
+            }
+            if (body[0] == KIND_PUT) {
+                index.put(id, new long[] { offset + HEADER, bodyLength });
+                liveBytes += HEADER + bodyLength;
+            }
+            offset += HEADER + bodyLength;
+        }
+
+        if (offset < length) {
+            EmiMetrics.increment("recordLog.tornTail");
+            Log.w(TAG, file.getName() + ": dropping " + (length - offset) + " bytes of torn/corrupt tail");
+            raf.setLength(offset);
+        }
+        maybeCompact();
+    }
+
+    private void maybeCompact() throws IOException {
+        long dead = raf.length() - liveBytes;
+        if (compactionScheduled || dead < COMPACT_MIN_DEAD_BYTES || dead < liveBytes)
+            return;
+        compactionScheduled = true;
+        io.execute(() -> {
+            try {
+                compact();
+            } catch (IOException e) {
+                Log.e(TAG, "Compaction of " + file.getName() + " failed", e);
+            }
+        });
+    }
+
+    private synchronized void compact() throws IOException {
+        try {
+            if (pending.size() > 0) {
+                flush(false);
+            }
+            rewriteLive();
+        } finally {
+            compactionScheduled = false;
+        }
+    }
+
+    private void rewriteLive() throws IOException {
+        long before = raf.length();
+        File temp = new File(file.getParentFile(), file.getName() + ".compact");
+        LinkedHashMap<String, long[]> compacted = new LinkedHashMap<>();
+        try (RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+            out.setLength(0);
+            long offset = 0;
+            for (Map.Entry<String, long[]> e : index.entrySet()) {
+                byte[] record = encode(KIND_PUT, e.getKey(), readPayload(e.getValue()));
+                out.write(record);
+                compacted.put(e.getKey(), new long[] { offset + HEADER, record.length - HEADER });
+                offset += record.length;
+            }
+            out.getFD().sync();
+        }
+
+        raf.close();
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            raf = new RandomAccessFile(file, "rw");
+            throw new IOException("rename failed");
+        }
+        raf = new RandomAccessFile(file, "rw");
+        index.clear();
+        index.putAll(compacted);
+        EmiMetrics.increment("recordLog.compactions");
+        Log.i(TAG, file.getName() + " compacted " + before + " -> " + raf.length() + " bytes");
+    }
+}
@@ -0,0 +1,102 @@
+package com.securefinance.emilock;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.List;
+
+/**
+ * ReportOutbox - Batches outbound reports onto the heartbeat round trip
+ *
+ * Features:
+ * - Reports (SIM change, security events, device info) are queued, never sent on their own
+ * - The next status request carries every pending report in one POST /sync
+ * - Reports are removed only after the server acknowledges their id
+ * - Urgent reports nudge the heartbeat so they still go out within seconds
+ *
+ * Storage is OfflineLockCache's pending report queue, so reports survive reboots.
+ */
+public final class ReportOutbox {
+
+    private static final String TAG = "EMI_Outbox";
+
+    // Keeps a single sync body small even after a long offline period
+    public static final int MAX_BATCH = 50;
+
+    public interface FlushListener {
+        void onFlushRequested();
+    }
+
+    private static volatile FlushListener flushListener;
+
+    private ReportOutbox() {
+    }
+
+    /**
+     * Queue a report for the next heartbeat
+     *
+     * @param urgent ask the heartbeat to run now instead of at its next tick
+     * @return the report id, null when it could not be queued
+     */
+    public static String enqueue(Context context, String type, JSONObject data, boolean urgent) {
+        String id = new OfflineLockCache(context.getApplicationContext()).addPendingReport(type, data);
+        EmiMetrics.increment("outbox.enqueued");
+        if (urgent) {
+            requestFlush();
+        }
+        return id;
+    }
+
+    public static void requestFlush() {
+        FlushListener listener = flushListener;
+        if (listener != null) {
+            listener.onFlushRequested();
+        } else {
+            Log.d(TAG, "Heartbeat not running - report waits for the next cycle");
+        }
+    }
+
+    public static boolean hasPending(Context context) {
+        return new OfflineLockCache(context.getApplicationContext()).hasPendingReports();
+    }
+
+    /**
+     * Sync body for the next heartbeat: {"reports":[{id,type,data,timestamp},...]}
+     * or null when there is nothing to send
+     */
+    public static JSONObject buildBatch(Context context) {
+        List<JSONObject> reports = new OfflineLockCache(context.getApplicationContext())
+                .getPendingReportsForSync(MAX_BATCH);
+        if (reports.isEmpty())
+            return null;
+        try {
+            JSONArray arr = new JSONArray();
+            for (JSONObject report : reports) {
+                arr.put(report);
+            }
+            JSONObject body = new JSONObject();
+            body.put("reports", arr);
+            EmiMetrics.setGauge("outbox.batchSize", reports.size());
+            return body;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to build batch", e);
+            return null;
+        }
+    }
+
+    public static void acknowledge(Context context, List<String> ids) {
+        if (ids.isEmpty())
+            return;
+        new OfflineLockCache(context.getApplicationContext()).acknowledgeReports(ids);
+        // Locks these reports describe are now part of the server state
+        EnforcementActor.getInstance(context).onReportsAcknowledged(ids);
+        EmiMetrics.add("outbox.acked", ids.size());
+    }
+
+    static void setFlushListener(FlushListener listener) {
+        flushListener = listener;
+    }
+}
@@ -0,0 +1,167 @@
+package com.securefinance.emilock;
+
+import android.app.admin.DevicePolicyManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.os.UserManager;
+import android.provider.Settings;
+import android.util.Log;
+
+/**
+ * RestrictionPolicy - Declarative restriction profiles applied as a delta
+ *
+ * Features:
+ * - Named profiles: BASE (provisioning), LOCKED, UNLOCKED
+ * - Reads the current restrictions once, then only adds what is missing and clears what is extra
+ * - Camera and ADB settings follow the same rule (camera state is cached after the first read)
+ * - Logs and records reads/writes per transition, so re-enforcing a locked device costs one read
+ */
+public class RestrictionPolicy {
+
+    private static final String TAG = "EMI_Restrictions";
+
+    public enum Profile {
+        BASE, LOCKED, UNLOCKED
+    }
+
+    // Always on once provisioned
+    private static final String[] BASE_RESTRICTIONS = {
+            UserManager.DISALLOW_FACTORY_RESET,
+            UserManager.DISALLOW_SAFE_BOOT,
+            UserManager.DISALLOW_UNINSTALL_APPS,
+            UserManager.DISALLOW_REMOVE_USER
+    };
+
+    // Only while locked
+    private static final String[] STRICT_RESTRICTIONS = {
+            UserManager.DISALLOW_USB_FILE_TRANSFER,
+            UserManager.DISALLOW_ADD_USER,
+            UserManager.DISALLOW_CONFIG_WIFI,
+            UserManager.DISALLOW_CONFIG_BLUETOOTH,
+            UserManager.DISALLOW_CONFIG_MOBILE_NETWORKS,
+            UserManager.DISALLOW_INSTALL_APPS,
+            UserManager.DISALLOW_SHARE_INTO_MANAGED_PROFILE
+    };
+
+    // Set by older builds - unlocking must leave them cleared as well
+    private static final String[] LEGACY_RESTRICTIONS = {
+            UserManager.DISALLOW_OUTGOING_CALLS,
+            UserManager.DISALLOW_SMS
+    };
+
+    private static RestrictionPolicy instance;
+
+    private final Context context;
+    private final DevicePolicyManager dpm;
+    private final UserManager userManager;
+    private final ComponentName adminComponent;
+
+    // Last known camera policy; null until read or after an out-of-band change
+    private Boolean cameraDisabled;
+
+    private RestrictionPolicy(Context context) {
+        this.context = context.getApplicationContext();
+        this.dpm = (DevicePolicyManager) this.context.getSystemService(Context.DEVICE_POLICY_SERVICE);
+        this.userManager = (UserManager) this.context.getSystemService(Context.USER_SERVICE);
+        this.adminComponent = new ComponentName(this.context, DeviceAdminReceiver.class);
+    }
+
+    public static synchronized RestrictionPolicy getInstance(Context context) {
+        if (instance == null) {
+            instance = new RestrictionPolicy(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Bring the device to the given profile with the minimum number of policy calls
+     * Returns the number of writes it took
+     */
+    public synchronized int apply(Profile profile) {
+        long start = SystemClock.elapsedRealtime();
+        int reads = 0;
+        int writes = 0;
+
+        try {
+            Bundle current = readRestrictions();
+            reads++;
+
+            for (String restriction : BASE_RESTRICTIONS) {
+                writes += ensure(current, restriction, true);
+            }
+            for (String restriction : STRICT_RESTRICTIONS) {
+                if (profile == Profile.LOCKED) {
+                    writes += ensure(current, restriction, true);
+                } else if (profile == Profile.UNLOCKED) {
+                    writes += ensure(current, restriction, false);
+                }
+            }
+            if (profile == Profile.UNLOCKED) {
+                for (String restriction : LEGACY_RESTRICTIONS) {
+                    writes += ensure(current, restriction, false);
+                }
+            }
+
+            if (profile != Profile.BASE) {
+                boolean wantCameraDisabled = profile == Profile.LOCKED;
+                if (cameraDisabled == null) {
+                    cameraDisabled = dpm.getCameraDisabled(adminComponent);
+                    reads++;
+                }
+                if (cameraDisabled != wantCameraDisabled) {
+                    dpm.setCameraDisabled(adminComponent, wantCameraDisabled);
+                    cameraDisabled = wantCameraDisabled;
+                    writes++;
+                }
+            }
+
+            // Block USB debugging (Settings reads are served from the in-process cache)
+            if (profile == Profile.LOCKED
+                    && !"0".equals(Settings.Global.getString(context.getContentResolver(), Settings.Global.ADB_ENABLED))) {
+                dpm.setGlobalSetting(adminComponent, Settings.Global.ADB_ENABLED, "0");
+                writes++;
+            }
+        } catch (Exception e) {
+            // A failed write leaves the cached camera state unreliable
+            cameraDisabled = null;
+            Log.e(TAG, "Failed to apply " + profile + " profile", e);
+        }
+
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        EmiMetrics.add("restrictions.reads", reads);
+        EmiMetrics.add("restrictions.writes", writes);
+        EmiMetrics.setGauge("restrictions." + profile.name().toLowerCase() + ".lastWrites", writes);
+        EmiMetrics.recordDuration("restrictions.applyMs", elapsed);
+        Log.i(TAG, profile + " profile: " + reads + " read(s), " + writes + " write(s) in " + elapsed + "ms");
+        return writes;
+    }
+
+    /**
+     * Forget cached state after something outside this class changed the policy
+     */
+    public synchronized void invalidate() {
+        cameraDisabled = null;
+    }
+
+    private int ensure(Bundle current, String restriction, boolean wanted) {
+        if (current.getBoolean(restriction, false) == wanted)
+            return 0;
+        if (wanted) {
+            dpm.addUserRestriction(adminComponent, restriction);
+        } else {
+            dpm.clearUserRestriction(adminComponent, restriction);
+        }
+        return 1;
+    }
+
+    private Bundle readRestrictions() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            // Only what this admin set - exactly the set we manage
+            return dpm.getUserRestrictions(adminComponent);
+        }
+        return userManager.getUserRestrictions();
+    }
+}
@@ -122,18 +122,18 @@ public class SafeModeDetector extends BroadcastReceiver {
                 .putString("LOCK_REASON", "SAFE_MODE")
                 .apply();
 
-        // 2. Lock device immediately
-        FullDeviceLockManager lockManager = new FullDeviceLockManager(context);
-        lockManager.lockDeviceImmediately();
+        // 2. Report to backend - queued first, so server unlocks wait for its ack
+        String reportId = reportSafeModeAttempt(context);
 
-        // 3. Start alarm (Safe Mode is a serious bypass attempt)
-        lockManager.startPowerButtonAlarm();
+        // 3. Lock device immediately
+        EnforcementActor enforcer = EnforcementActor.getInstance(context);
+        enforcer.lockReported("safeMode", reportId);
 
-        // 4. Launch lock screen (as Device Owner, we still run in Safe Mode)
-        launchLockScreen(context);
+        // 4. Start alarm (Safe Mode is a serious bypass attempt)
+        enforcer.startAlarm("safeMode");
 
-        // 5. Report to backend
-        reportSafeModeAttempt(context);
+        // 5. Launch lock screen (as Device Owner, we still run in Safe Mode)
+        launchLockScreen(context);
 
         Log.i(TAG, "🔒 Device locked due to Safe Mode attempt");
     }
@@ -158,52 +158,23 @@ public class SafeModeDetector extends BroadcastReceiver {
     }
 
     /**
-     * Report Safe Mode attempt to backend
+     * Report Safe Mode attempt to backend (sent with the next heartbeat)
+     *
+     * @return the report id, null when it could not be queued
      */
-    private void reportSafeModeAttempt(Context context) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String serverUrl = prefs.getString("SERVER_URL", "https://emi-pro-app.onrender.com");
-        String customerId = prefs.getString("CUSTOMER_ID", null);
-
-        if (customerId == null) {
-            Log.w(TAG, "No customer ID - cannot report");
-            return;
+    private String reportSafeModeAttempt(Context context) {
+        try {
+            org.json.JSONObject data = new org.json.JSONObject();
+            data.put("event", "SAFE_MODE_ATTEMPT");
+            data.put("timestamp", System.currentTimeMillis());
+            data.put("action", "LOCKED");
+            String id = ReportOutbox.enqueue(context, "security_event", data, true);
+            Log.i(TAG, "Safe Mode attempt queued for report");
+            return id;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to queue Safe Mode report", e);
+            return null;
         }
-
-        new Thread(() -> {
-            try {
-                String reportUrl = serverUrl + "/api/customers/" + customerId + "/security-event";
-
-                String jsonBody = String.format(
-                        "{\"event\":\"SAFE_MODE_ATTEMPT\",\"timestamp\":%d,\"action\":\"LOCKED\"}",
-                        System.currentTimeMillis());
-
-                java.net.URL url = new java.net.URL(reportUrl);
-                java.net.HttpURLConnection conn = (java.net.HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("POST");
-                conn.setRequestProperty("Content-Type", "application/json");
-                conn.setDoOutput(true);
-                conn.getOutputStream().write(jsonBody.getBytes());
-
-                int responseCode = conn.getResponseCode();
-                Log.i(TAG, "Safe Mode attempt reported: " + responseCode);
-
-                conn.disconnect();
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to report Safe Mode attempt", e);
-
-                // Queue for retry
-                OfflineLockCache cache = new OfflineLockCache(context);
-                try {
-                    org.json.JSONObject data = new org.json.JSONObject();
-                    data.put("event", "SAFE_MODE_ATTEMPT");
-                    data.put("timestamp", System.currentTimeMillis());
-                    cache.addPendingReport("security_event", data);
-                } catch (Exception ex) {
-                    // Ignore
-                }
-            }
-        }).start();
     }
 
     /**
@@ -211,7 +182,7 @@ public class SafeModeDetector extends BroadcastReceiver {
      * Call this during provisioning
      */
     public static void hardenAgainstSafeMode(Context context) {
-        FullDeviceLockManager lockManager = new FullDeviceLockManager(context);
+        FullDeviceLockManager lockManager = FullDeviceLockManager.getInstance(context);
 
         if (!lockManager.isDeviceOwner()) {
             Log.w(TAG, "Cannot harden - not device owner");
@@ -242,9 +213,9 @@ public class SafeModeDetector extends BroadcastReceiver {
             Log.w(TAG, "🚨 App launched in Safe Mode!");
 
             // Lock immediately
-            FullDeviceLockManager lockManager = new FullDeviceLockManager(context);
-            lockManager.lockDeviceImmediately();
-            lockManager.startPowerButtonAlarm();
+            EnforcementActor enforcer = EnforcementActor.getInstance(context);
+            enforcer.lock("safeMode");
+            enforcer.startAlarm("safeMode");
         }
     }
 }
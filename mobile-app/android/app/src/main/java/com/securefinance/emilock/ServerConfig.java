@@ -0,0 +1,47 @@
+package com.securefinance.emilock;
+
+import android.content.Context;
+
+/**
+ * ServerConfig - Central resolver for the backend base URL
+ *
+ * Features:
+ * - Reads SERVER_URL written at provisioning, falls back to production
+ * - Fails over to SERVER_URLS alternates through EndpointSelector
+ * - Normalises the trailing slash so callers can append "/api/..." directly
+ * - Rewrites localhost to the emulator host loopback (10.0.2.2)
+ */
+public final class ServerConfig {
+
+    public static final String DEFAULT_SERVER_URL = "https://emi-pro-app.onrender.com";
+
+    private ServerConfig() {
+    }
+
+    /**
+     * Base URL without a trailing slash, e.g. https://emi-pro-app.onrender.com
+     * Picks the best-ranked endpoint when alternates are configured (see EndpointSelector)
+     */
+    public static String getBaseUrl(Context context) {
+        return EndpointSelector.getInstance(context).current();
+    }
+
+    /**
+     * Absolute URL for an API path, e.g. apiUrl(ctx, "/api/customers/123/lock-status")
+     */
+    public static String apiUrl(Context context, String path) {
+        return getBaseUrl(context) + (path.startsWith("/") ? path : "/" + path);
+    }
+
+    public static String normalize(String serverUrl) {
+        String baseUrl = serverUrl == null || serverUrl.isEmpty() ? DEFAULT_SERVER_URL : serverUrl;
+        if (baseUrl.endsWith("/")) {
+            baseUrl = baseUrl.substring(0, baseUrl.length() - 1);
+        }
+        // Fallback for emulator testing
+        if (baseUrl.contains("localhost")) {
+            baseUrl = baseUrl.replace("localhost", "10.0.2.2");
+        }
+        return baseUrl;
+    }
+}
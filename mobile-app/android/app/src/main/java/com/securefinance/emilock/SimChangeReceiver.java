@@ -95,70 +95,44 @@ public class SimChangeReceiver extends BroadcastReceiver {
                 .putLong("SIM_CHANGE_TIME", System.currentTimeMillis())
                 .apply();
 
-        // 2. Lock device immediately
-        FullDeviceLockManager lockManager = new FullDeviceLockManager(context);
-        lockManager.lockDeviceImmediately();
+        // 2. Report to backend - queued first, so server unlocks wait for its ack
+        String reportId = reportSimChange(context, originalIccid, newSim);
 
-        // 3. Start alarm (optional - configurable)
+        // 3. Lock device immediately
+        EnforcementActor enforcer = EnforcementActor.getInstance(context);
+        enforcer.lockReported("simChange", reportId);
+
+        // 4. Start alarm (optional - configurable)
         boolean alarmOnSimChange = prefs.getBoolean("ALARM_ON_SIM_CHANGE", false);
         if (alarmOnSimChange) {
-            lockManager.startPowerButtonAlarm();
+            enforcer.startAlarm("simChange");
         }
 
-        // 4. Report to backend
-        reportSimChange(context, originalIccid, newSim);
-
         // 5. Launch lock screen
-        lockManager.launchLockScreen();
+        FullDeviceLockManager.getInstance(context).launchLockScreen();
 
         Log.i(TAG, "🔒 Device locked due to SIM change");
     }
 
     /**
-     * Report SIM change to backend
+     * Report SIM change to backend (sent with the next heartbeat)
+     *
+     * @return the report id, null when it could not be queued
      */
-    private void reportSimChange(Context context, String originalIccid, SimInfo newSim) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        String serverUrl = prefs.getString("SERVER_URL", "https://emi-pro-app.onrender.com");
-        String customerId = prefs.getString("CUSTOMER_ID", null);
-
-        if (customerId == null) {
-            Log.w(TAG, "No customer ID - cannot report SIM change");
-            return;
+    private String reportSimChange(Context context, String originalIccid, SimInfo newSim) {
+        try {
+            org.json.JSONObject data = new org.json.JSONObject();
+            data.put("originalIccid", originalIccid);
+            data.put("newIccid", newSim.iccid);
+            data.put("newOperator", newSim.operator != null ? newSim.operator : "");
+            data.put("timestamp", System.currentTimeMillis());
+            String id = ReportOutbox.enqueue(context, "sim_change", data, true);
+            Log.i(TAG, "SIM change queued for report");
+            return id;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to queue SIM change report", e);
+            return null;
         }
-
-        // Send report in background
-        new Thread(() -> {
-            try {
-                String reportUrl = serverUrl + "/api/customers/" + customerId + "/sim-change";
-
-                String jsonBody = String.format(
-                        "{\"originalIccid\":\"%s\",\"newIccid\":\"%s\",\"newOperator\":\"%s\",\"timestamp\":%d}",
-                        originalIccid,
-                        newSim.iccid,
-                        newSim.operator != null ? newSim.operator : "",
-                        System.currentTimeMillis());
-
-                java.net.URL url = new java.net.URL(reportUrl);
-                java.net.HttpURLConnection conn = (java.net.HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("POST");
-                conn.setRequestProperty("Content-Type", "application/json");
-                conn.setDoOutput(true);
-                conn.getOutputStream().write(jsonBody.getBytes());
-
-                int responseCode = conn.getResponseCode();
-                Log.i(TAG, "SIM change reported to backend: " + responseCode);
-
-                conn.disconnect();
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to report SIM change", e);
-
-                // Queue for retry
-                prefs.edit()
-                        .putBoolean("PENDING_SIM_REPORT", true)
-                        .apply();
-            }
-        }).start();
     }
 
     /**
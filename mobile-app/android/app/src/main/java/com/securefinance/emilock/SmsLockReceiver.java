@@ -91,12 +91,11 @@ public class SmsLockReceiver extends BroadcastReceiver {
             // Still allow if token is valid
         }
 
-        // Initialize lock manager and offline cache
-        FullDeviceLockManager lockManager = new FullDeviceLockManager(context);
+        // Initialize offline cache
         OfflineLockCache offlineCache = new OfflineLockCache(context);
 
         // Try to execute the command
-        boolean success = processCommand(context, message, lockManager, offlineCache);
+        boolean success = processCommand(context, message, offlineCache);
 
         if (success) {
             Log.i(TAG, "✅ SMS command executed successfully");
@@ -110,19 +109,19 @@ public class SmsLockReceiver extends BroadcastReceiver {
     }
 
     private boolean processCommand(Context context, String message,
-            FullDeviceLockManager lockManager,
             OfflineLockCache offlineCache) {
+        EnforcementActor enforcer = EnforcementActor.getInstance(context);
 
         // Try new format first: COMMAND:TOKEN
         if (message.contains(":")) {
-            return offlineCache.executeSmsCommand(message, lockManager);
+            return offlineCache.executeSmsCommand(message);
         }
 
         // Legacy format: LOCK TOKEN (space separated)
         if (message.startsWith("LOCK ")) {
             String token = message.substring(5).trim();
             if (offlineCache.validateLockToken(token)) {
-                lockManager.lockDeviceImmediately();
+                enforcer.lockReported("sms", offlineCache.reportSmsLock());
                 offlineCache.queueCommand("lock", null, "sms");
                 return true;
             }
@@ -131,7 +130,7 @@ public class SmsLockReceiver extends BroadcastReceiver {
         if (message.startsWith("UNLOCK ")) {
             String token = message.substring(7).trim();
             if (offlineCache.validateUnlockToken(token)) {
-                lockManager.unlockDevice();
+                enforcer.unlock("sms");
                 offlineCache.queueCommand("unlock", null, "sms");
                 return true;
             }
@@ -140,17 +139,16 @@ public class SmsLockReceiver extends BroadcastReceiver {
         if (message.startsWith("ALARM ")) {
             String token = message.substring(6).trim();
             if (offlineCache.validateLockToken(token)) {
-                lockManager.startPowerButtonAlarm();
+                enforcer.startAlarm("sms");
                 return true;
             }
         }
 
         // Also check against legacy prefs token
-        return processLegacyCommand(context, message, lockManager);
+        return processLegacyCommand(context, message);
     }
 
-    private boolean processLegacyCommand(Context context, String message,
-            FullDeviceLockManager lockManager) {
+    private boolean processLegacyCommand(Context context, String message) {
         SharedPreferences prefs = context.getSharedPreferences("PhoneLockPrefs", Context.MODE_PRIVATE);
         String offlineToken = prefs.getString("OFFLINE_LOCK_TOKEN", null);
 
@@ -161,7 +159,8 @@ public class SmsLockReceiver extends BroadcastReceiver {
 
         if (message.equalsIgnoreCase(lockCommand)) {
             Log.i(TAG, "Legacy LOCK command matched");
-            lockManager.lockDeviceImmediately();
+            EnforcementActor.getInstance(context)
+                    .lockReported("sms", new OfflineLockCache(context).reportSmsLock());
 
             // Start lock service
             startLockService(context);
@@ -0,0 +1,105 @@
+package com.securefinance.emilock;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+/**
+ * TransitionTimer - Monotonic per-step timings for one lock or unlock transition
+ *
+ * Features:
+ * - Each step lands in an EmiMetrics timer ("lock.step.kioskMs", ...), whose histogram
+ *   aggregates every transition this device has run (readable via getMetrics on the bridge)
+ * - Time-to-visible-lock (start until the lock screen has window focus) and
+ *   time-to-fully-hardened (start until the last hardening step) are separate timers
+ * - finish() queues one "transition_timing" report with the step breakdown and the
+ *   device model; it rides the next heartbeat sync (ReportOutbox)
+ *
+ * Steps may be recorded from several threads (hardening runs in parallel).
+ */
+public class TransitionTimer {
+
+    private static final String TAG = "EMI_Timing";
+
+    // Start of the lock still waiting for its first visible frame, 0 = none
+    private static volatile long visibleFrom;
+    // Time-to-visible of the latest lock, -1 until it is shown
+    private static volatile long lastVisibleMs = -1;
+
+    private final Context context;
+    private final String kind;
+    private final long start;
+    private final JSONObject steps = new JSONObject();
+
+    public TransitionTimer(Context context, boolean lock) {
+        this.context = context.getApplicationContext();
+        this.kind = lock ? "lock" : "unlock";
+        this.start = SystemClock.elapsedRealtime();
+        if (lock) {
+            lastVisibleMs = -1;
+            visibleFrom = start;
+        }
+    }
+
+    /**
+     * Record a step that began at stepStart (SystemClock.elapsedRealtime())
+     */
+    public void record(String step, long stepStart) {
+        long ms = SystemClock.elapsedRealtime() - stepStart;
+        EmiMetrics.recordDuration(kind + ".step." + step + "Ms", ms);
+        synchronized (steps) {
+            try {
+                steps.put(step, ms);
+            } catch (Exception e) {
+                // Only non-finite numbers throw
+            }
+        }
+    }
+
+    /**
+     * Transition complete - record the total and queue the report
+     */
+    public void finish(boolean resumed) {
+        long total = SystemClock.elapsedRealtime() - start;
+        EmiMetrics.recordDuration(kind.equals("lock") ? "lock.timeToHardenedMs" : "unlock.totalMs", total);
+        Log.i(TAG, kind + " took " + total + "ms " + steps);
+
+        try {
+            JSONObject data = new JSONObject();
+            data.put("transition", kind);
+            data.put("resumed", resumed);
+            data.put("totalMs", total);
+            long visible = lastVisibleMs;
+            if (kind.equals("lock") && visible >= 0) {
+                data.put("timeToVisibleMs", visible);
+            }
+            synchronized (steps) {
+                data.put("steps", new JSONObject(steps.toString()));
+            }
+            data.put("manufacturer", Build.MANUFACTURER);
+            data.put("model", Build.MODEL);
+            data.put("sdkLevel", Build.VERSION.SDK_INT);
+            data.put("timestamp", System.currentTimeMillis());
+            ReportOutbox.enqueue(context, "transition_timing", data, false);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to queue timing report", e);
+        }
+    }
+
+    /**
+     * The lock screen has window focus - closes the time-to-visible measurement
+     */
+    public static void lockScreenShown() {
+        long from = visibleFrom;
+        if (from == 0)
+            return;
+        visibleFrom = 0;
+        long ms = SystemClock.elapsedRealtime() - from;
+        lastVisibleMs = ms;
+        EmiMetrics.recordDuration("lock.timeToVisibleMs", ms);
+        Log.i(TAG, "Lock screen visible after " + ms + "ms");
+    }
+}
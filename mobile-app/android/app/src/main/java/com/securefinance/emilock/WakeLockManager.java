@@ -0,0 +1,190 @@
+package com.securefinance.emilock;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * WakeLockManager - The only place the app holds a wake lock
+ *
+ * Features:
+ * - Callers get a Handle with a reason and a timeout; release() is idempotent and
+ *   the timeout releases a forgotten handle
+ * - One OS wake lock per level (CPU / screen), held while at least one handle of that
+ *   level is open and released when the last one closes
+ * - Hourly budget of held time: once spent, new handles are denied (held() == false);
+ *   until then a handle's timeout is clamped to what is left. The anti-tamper alarm is
+ *   exempt - it always gets its screen lock, and its held time still counts
+ * - Held time per reason in EmiMetrics ("wakelock.heldMs.<reason>"), active count and
+ *   budget use as gauges - visible through getMetrics diagnostics
+ */
+public class WakeLockManager {
+
+    private static final String TAG = "EMI_WakeLock";
+
+    // Wall time any of our wake locks may be held per hour window
+    private static final long BUDGET_MS_PER_HOUR = 15 * 60 * 1000L;
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+    // Never denied or clamped by the budget
+    private static final String REASON_ALARM = "alarm";
+
+    private static WakeLockManager instance;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final PowerManager.WakeLock cpuLock;
+    private final PowerManager.WakeLock screenLock;
+
+    // Guarded by this
+    private int cpuHandles;
+    private int screenHandles;
+    // Latest timeout among the open handles of each level - the OS lock is armed for that
+    private long cpuDeadline;
+    private long screenDeadline;
+    private long heldSince;        // elapsedRealtime when the first handle opened, 0 = none open
+    private long budgetWindowStart;
+    private long budgetUsedMs;
+
+    private WakeLockManager(Context context) {
+        PowerManager pm = (PowerManager) context.getApplicationContext().getSystemService(Context.POWER_SERVICE);
+        cpuLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "EMILock:cpu");
+        cpuLock.setReferenceCounted(false);
+        screenLock = pm.newWakeLock(PowerManager.FULL_WAKE_LOCK | PowerManager.ACQUIRE_CAUSES_WAKEUP
+                | PowerManager.ON_AFTER_RELEASE, "EMILock:screen");
+        screenLock.setReferenceCounted(false);
+        budgetWindowStart = SystemClock.elapsedRealtime();
+    }
+
+    public static synchronized WakeLockManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new WakeLockManager(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Keep the CPU awake
+     */
+    public Handle acquireCpu(String reason, long timeoutMs) {
+        return acquire(reason, timeoutMs, false);
+    }
+
+    /**
+     * Turn the screen on and keep it on
+     */
+    public Handle acquireScreen(String reason, long timeoutMs) {
+        return acquire(reason, timeoutMs, true);
+    }
+
+    private synchronized Handle acquire(String reason, long timeoutMs, boolean screen) {
+        long now = SystemClock.elapsedRealtime();
+        long remaining = remainingBudget(now);
+        boolean exempt = REASON_ALARM.equals(reason);
+        if (remaining <= 0 && !exempt) {
+            EmiMetrics.increment("wakelock.denied." + reason);
+            Log.w(TAG, "Wake lock budget spent - denied for " + reason);
+            return new Handle(this, reason, screen, false, now);
+        }
+
+        long timeout = exempt ? timeoutMs : Math.min(timeoutMs, remaining);
+        if (cpuHandles + screenHandles == 0) {
+            heldSince = now;
+        }
+        // Re-acquiring a non-counted lock replaces its timeout - never shorten another handle's
+        if (screen) {
+            screenDeadline = screenHandles++ > 0 ? Math.max(screenDeadline, now + timeout) : now + timeout;
+            screenLock.acquire(screenDeadline - now);
+        } else {
+            cpuDeadline = cpuHandles++ > 0 ? Math.max(cpuDeadline, now + timeout) : now + timeout;
+            cpuLock.acquire(cpuDeadline - now);
+        }
+        publish();
+
+        Handle handle = new Handle(this, reason, screen, true, now);
+        handler.postDelayed(handle::release, timeout);
+        return handle;
+    }
+
+    private synchronized void release(Handle handle) {
+        long now = SystemClock.elapsedRealtime();
+        EmiMetrics.add("wakelock.heldMs." + handle.reason, now - handle.acquiredAt);
+        EmiMetrics.increment("wakelock.acquired." + handle.reason);
+
+        if (handle.screen) {
+            if (--screenHandles == 0 && screenLock.isHeld())
+                screenLock.release();
+        } else {
+            if (--cpuHandles == 0 && cpuLock.isHeld())
+                cpuLock.release();
+        }
+        if (cpuHandles + screenHandles == 0) {
+            chargeBudget(now);
+            heldSince = 0;
+        }
+        publish();
+    }
+
+    private long remainingBudget(long now) {
+        if (now - budgetWindowStart >= HOUR_MS) {
+            chargeBudget(now); // Time held in the old window still counts there
+            budgetWindowStart = now;
+            budgetUsedMs = 0;
+        }
+        long ongoing = heldSince != 0 ? now - heldSince : 0;
+        return BUDGET_MS_PER_HOUR - budgetUsedMs - ongoing;
+    }
+
+    private void chargeBudget(long now) {
+        if (heldSince != 0) {
+            budgetUsedMs += now - heldSince;
+            heldSince = cpuHandles + screenHandles > 0 ? now : 0;
+        }
+    }
+
+    private void publish() {
+        EmiMetrics.setGauge("wakelock.active", cpuHandles + screenHandles);
+        EmiMetrics.setGauge("wakelock.budgetUsedMs", budgetUsedMs);
+    }
+
+    /**
+     * One caller's claim on a wake lock - release it in a finally block
+     */
+    public static final class Handle implements AutoCloseable {
+        private final WakeLockManager owner;
+        private final String reason;
+        private final boolean screen;
+        private final long acquiredAt;
+        private boolean open;
+
+        private Handle(WakeLockManager owner, String reason, boolean screen, boolean open, long acquiredAt) {
+            this.owner = owner;
+            this.reason = reason;
+            this.screen = screen;
+            this.open = open;
+            this.acquiredAt = acquiredAt;
+        }
+
+        /**
+         * false when the budget was spent and nothing is actually held
+         */
+        public synchronized boolean held() {
+            return open;
+        }
+
+        public void release() {
+            synchronized (this) {
+                if (!open)
+                    return;
+                open = false;
+            }
+            owner.release(this);
+        }
+
+        @Override
+        public void close() {
+            release();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.securefinance.emilock;
+
+import android.app.ActivityManager;
+import android.app.WallpaperManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+import java.io.File;
+
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.HashingSink;
+import okio.Okio;
+
+/**
+ * WallpaperPipeline - Download, cache, decode and apply the device wallpaper
+ *
+ * Features:
+ * - Streams the download straight to a disk cache (no byte[] of the whole image)
+ * - Revalidates with If-None-Match; a 304 or no network falls back to the cached file
+ * - Bounds-first decode sampled down to the display size (RGB_565 on low-RAM devices)
+ * - One setBitmap call for home and lock screen with the same decoded bitmap
+ * - Skips decode and apply when this exact image is already the wallpaper
+ */
+public class WallpaperPipeline {
+
+    private static final String TAG = "EMI_Wallpaper";
+
+    private static final String PREFS_NAME = "PhoneLockPrefs";
+    private static final String KEY_URL = "WALLPAPER_URL";
+    private static final String KEY_ETAG = "WALLPAPER_ETAG";
+    private static final String KEY_HASH = "WALLPAPER_HASH";
+    // hash@WxH of the image currently set as wallpaper
+    private static final String KEY_APPLIED = "WALLPAPER_APPLIED";
+
+    private static WallpaperPipeline instance;
+
+    private final Context context;
+    private final SharedPreferences prefs;
+    private final File cacheFile;
+
+    private WallpaperPipeline(Context context) {
+        this.context = context.getApplicationContext();
+        this.prefs = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        File dir = new File(this.context.getCacheDir(), "wallpaper");
+        dir.mkdirs();
+        // Only the current wallpaper is ever needed - one cached file
+        this.cacheFile = new File(dir, "current.img");
+    }
+
+    public static synchronized WallpaperPipeline getInstance(Context context) {
+        if (instance == null) {
+            instance = new WallpaperPipeline(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Make the image at this URL the home and lock screen wallpaper
+     * Blocking - call off the main thread
+     */
+    public synchronized boolean apply(String imageUrl) {
+        long start = SystemClock.elapsedRealtime();
+        try {
+            if (!fetch(imageUrl)) {
+                return false;
+            }
+
+            int[] target = targetSize();
+            String appliedKey = prefs.getString(KEY_HASH, "") + "@" + target[0] + "x" + target[1];
+            if (appliedKey.equals(prefs.getString(KEY_APPLIED, null))) {
+                EmiMetrics.increment("wallpaper.skipped");
+                Log.d(TAG, "Wallpaper already applied - nothing to do");
+                return true;
+            }
+
+            Bitmap bitmap = decode(target[0], target[1]);
+            if (bitmap == null) {
+                Log.e(TAG, "Could not decode wallpaper image");
+                return false;
+            }
+            try {
+                WallpaperManager wallpaperManager = WallpaperManager.getInstance(context);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                    wallpaperManager.setBitmap(bitmap, null, true,
+                            WallpaperManager.FLAG_SYSTEM | WallpaperManager.FLAG_LOCK);
+                } else {
+                    wallpaperManager.setBitmap(bitmap);
+                }
+            } finally {
+                bitmap.recycle();
+            }
+
+            prefs.edit().putString(KEY_APPLIED, appliedKey).apply();
+            // FLAG_LOCK above replaced the rendered lock wallpaper - put it back while locked
+            LockWallpaperRenderer lockWallpaper = LockWallpaperRenderer.getInstance(context);
+            lockWallpaper.invalidate();
+            lockWallpaper.refresh();
+            EmiMetrics.recordDuration("wallpaper.applyMs", SystemClock.elapsedRealtime() - start);
+            Log.i(TAG, "Wallpaper set successfully");
+            return true;
+
+        } catch (OutOfMemoryError e) {
+            EmiMetrics.increment("wallpaper.oom");
+            Log.e(TAG, "Out of memory applying wallpaper", e);
+            return false;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to set wallpaper", e);
+            return false;
+        }
+    }
+
+    /**
+     * Make sure cacheFile holds the current image for this URL
+     */
+    private boolean fetch(String imageUrl) {
+        boolean sameUrl = imageUrl.equals(prefs.getString(KEY_URL, null)) && cacheFile.exists();
+
+        Request.Builder builder = new Request.Builder().url(imageUrl);
+        String etag = sameUrl ? prefs.getString(KEY_ETAG, null) : null;
+        if (etag != null) {
+            builder.header("If-None-Match", etag);
+        }
+
+        try (Response response = HttpClientProvider.forDownloads().newCall(builder.build()).execute()) {
+            if (response.code() == 304 && sameUrl) {
+                EmiMetrics.increment("wallpaper.notModified");
+                return true;
+            }
+            if (!response.isSuccessful() || response.body() == null) {
+                Log.e(TAG, "Wallpaper download failed: HTTP " + response.code());
+                return sameUrl; // Keep showing what we have
+            }
+
+            File temp = new File(cacheFile.getParentFile(), "download.tmp");
+            HashingSink hashing = HashingSink.sha1(Okio.sink(temp));
+            long bytes;
+            try (BufferedSink sink = Okio.buffer(hashing)) {
+                bytes = sink.writeAll(response.body().source());
+            }
+            if (!temp.renameTo(cacheFile)) {
+                temp.delete();
+                Log.e(TAG, "Could not store wallpaper in cache");
+                return false;
+            }
+
+            EmiMetrics.add("wallpaper.downloadBytes", bytes);
+            prefs.edit()
+                    .putString(KEY_URL, imageUrl)
+                    .putString(KEY_ETAG, response.header("ETag"))
+                    .putString(KEY_HASH, hashing.hash().hex())
+                    .apply();
+            return true;
+
+        } catch (Exception e) {
+            Log.w(TAG, "Wallpaper download failed: " + e.getMessage());
+            return sameUrl; // Offline - the cached copy is still the right image
+        }
+    }
+
+    private Bitmap decode(int targetWidth, int targetHeight) {
+        long start = SystemClock.elapsedRealtime();
+        String path = cacheFile.getAbsolutePath();
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            return null;
+
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= targetWidth
+                && options.outHeight / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (am != null && am.isLowRamDevice()) {
+            options.inPreferredConfig = Bitmap.Config.RGB_565; // Half the memory, no alpha in photos anyway
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+
+        EmiMetrics.setGauge("wallpaper.sampleSize", sampleSize);
+        EmiMetrics.recordDuration("wallpaper.decodeMs", SystemClock.elapsedRealtime() - start);
+        Log.d(TAG, "Decoded " + options.outWidth + "x" + options.outHeight + " (1/" + sampleSize + ") for "
+                + targetWidth + "x" + targetHeight);
+        return bitmap;
+    }
+
+    private int[] targetSize() {
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        int width = Math.min(metrics.widthPixels, metrics.heightPixels);
+        int height = Math.max(metrics.widthPixels, metrics.heightPixels);
+        WallpaperManager wallpaperManager = WallpaperManager.getInstance(context);
+        // Launchers may ask for a wider (scrolling) wallpaper
+        width = Math.max(width, wallpaperManager.getDesiredMinimumWidth());
+        height = Math.max(height, wallpaperManager.getDesiredMinimumHeight());
+        return new int[] { width, height };
+    }
+}
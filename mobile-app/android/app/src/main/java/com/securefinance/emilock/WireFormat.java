@@ -0,0 +1,109 @@
+package com.securefinance.emilock;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+/**
+ * WireFormat - Encoding of device -> server message bodies
+ *
+ * Features:
+ * - Versioned compact encoding: application/vnd.emilock.v1+cbor
+ * - gzip only above a size threshold (small bodies grow when compressed)
+ * - Asks for CBOR responses via Accept, parsed by LockStatus.readCborFrom()
+ * - Falls back to JSON for a day when the server answers 415
+ */
+public final class WireFormat {
+
+    private static final String TAG = "EMI_Wire";
+
+    public static final MediaType CBOR = MediaType.get("application/vnd.emilock.v1+cbor");
+    private static final String ACCEPT = "application/vnd.emilock.v1+cbor, application/json;q=0.5";
+
+    private static final String PREFS_NAME = "PhoneLockPrefs";
+    private static final String KEY_JSON_UNTIL = "WIRE_JSON_UNTIL";
+    private static final long JSON_FALLBACK_PERIOD = 24 * 60 * 60 * 1000;
+    // Below this gzip's header/trailer outweighs the savings
+    private static final int GZIP_THRESHOLD = 512;
+
+    private WireFormat() {
+    }
+
+    /**
+     * Set method, body and headers for a POST of this message
+     */
+    public static Request.Builder post(Context context, Request.Builder builder, JSONObject message) {
+        boolean cbor = isCborEnabled(context);
+        byte[] body = cbor ? Cbor.encode(message) : message.toString().getBytes(StandardCharsets.UTF_8);
+        EmiMetrics.add(cbor ? "wire.cborBytes" : "wire.jsonBytes", body.length);
+
+        if (body.length > GZIP_THRESHOLD) {
+            byte[] compressed = gzip(body);
+            if (compressed != null && compressed.length < body.length) {
+                EmiMetrics.add("wire.gzipSavedBytes", body.length - compressed.length);
+                body = compressed;
+                builder.header("Content-Encoding", "gzip");
+            }
+        }
+        EmiMetrics.add("wire.bytesOut", body.length);
+
+        return accept(context, builder)
+                .post(RequestBody.create(body, cbor ? CBOR : HttpClientProvider.JSON));
+    }
+
+    /**
+     * Ask for a CBOR response when the server supports it
+     */
+    public static Request.Builder accept(Context context, Request.Builder builder) {
+        if (isCborEnabled(context)) {
+            builder.header("Accept", ACCEPT);
+        }
+        return builder;
+    }
+
+    public static boolean isCbor(MediaType type) {
+        return type != null && type.subtype().endsWith("cbor");
+    }
+
+    /**
+     * Server rejected our encoding (415) - speak JSON for a while
+     */
+    public static void onUnsupported(Context context) {
+        Log.w(TAG, "Server rejected CBOR - falling back to JSON");
+        EmiMetrics.increment("wire.fallbacks");
+        prefs(context).edit()
+                .putLong(KEY_JSON_UNTIL, System.currentTimeMillis() + JSON_FALLBACK_PERIOD)
+                .apply();
+    }
+
+    private static boolean isCborEnabled(Context context) {
+        return System.currentTimeMillis() >= prefs(context).getLong(KEY_JSON_UNTIL, 0);
+    }
+
+    private static byte[] gzip(byte[] data) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+            GZIPOutputStream gz = new GZIPOutputStream(out);
+            gz.write(data);
+            gz.close();
+            return out.toByteArray();
+        } catch (Exception e) {
+            Log.e(TAG, "gzip failed", e);
+            return null;
+        }
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
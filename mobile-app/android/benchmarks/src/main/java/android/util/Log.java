@@ -0,0 +1,28 @@
+package android.util;
+
+/**
+ * Desktop stand-in for android.util.Log so app classes run under JMH
+ */
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+
+    public static int i(String tag, String msg) {
+        return 0;
+    }
+
+    public static int w(String tag, String msg) {
+        System.err.println(tag + ": " + msg);
+        return 0;
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        System.err.println(tag + ": " + msg + " " + tr);
+        return 0;
+    }
+}
@@ -0,0 +1,78 @@
+package com.securefinance.emilock.benchmarks;
+
+import com.securefinance.emilock.Cbor;
+import com.securefinance.emilock.LockStatus;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+
+/**
+ * LockStatusBenchmark - Streaming status parser vs body string + JSONObject
+ *
+ * One /lock-status body per op, read from an okio Buffer as the heartbeat reads it from
+ * the response. The JSONObject variant is what the heartbeat did before LockStatus:
+ * response.body().string() then new JSONObject(...) and opt* per field.
+ * cborParser decodes the same document as CBOR (application/vnd.emilock.v1+cbor).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LockStatusBenchmark {
+
+    // Shape of findLockStatus() in backend/routes/customerRoutes.js, with a lease
+    static final String STATUS_JSON = "{\"isLocked\":true,"
+            + "\"lockMessage\":\"Your EMI payment is overdue. Please pay to unlock your device.\","
+            + "\"supportPhone\":\"+91 98765 43210\",\"v\":1760659200000,\"nextDueAt\":1761264000000,"
+            + "\"amountDue\":4599,\"lender\":\"SecureFinance Ltd\","
+            + "\"lease\":\"eyJjaWQiOiJDVVNUMDAxIiwibG9ja2VkIjp0cnVlLCJ2IjoxNzYwNjU5MjAwMDAwLCJleHAiOjE3NjA3NDU2MDAwMDB9\","
+            + "\"leaseSig\":\"MEUCIQDx4k1m3oZ0lq0F7w5S1mJ9d3qWcXo2eJp4aY3u0b6cHgIgY8Xb1T0v4QmP1uI8v7u2rKq9W0l3s5e6f7g8h9i0j1k\"}";
+
+    private byte[] body;
+    private byte[] cborBody;
+    private final LockStatus status = new LockStatus();
+
+    @Setup
+    public void setup() throws Exception {
+        body = STATUS_JSON.getBytes(StandardCharsets.UTF_8);
+        cborBody = Cbor.encode(new JSONObject(STATUS_JSON));
+    }
+
+    @Benchmark
+    public boolean streamingParser() throws IOException {
+        status.readFrom(new Buffer().write(body));
+        return status.isLocked;
+    }
+
+    @Benchmark
+    public boolean cborParser() throws IOException {
+        status.readCborFrom(new Buffer().write(cborBody));
+        return status.isLocked;
+    }
+
+    @Benchmark
+    public void jsonObject(Blackhole bh) throws Exception {
+        JSONObject json = new JSONObject(new Buffer().write(body).readUtf8());
+        bh.consume(json.optBoolean("isLocked", false));
+        bh.consume(json.optString("lockMessage", null));
+        bh.consume(json.optString("supportPhone", null));
+        bh.consume(json.optLong("v", 0));
+        bh.consume(json.optLong("nextDueAt", 0));
+        bh.consume(json.optLong("amountDue", 0));
+        bh.consume(json.optString("lender", null));
+        bh.consume(json.optString("lease", null));
+        bh.consume(json.optString("leaseSig", null));
+    }
+}
@@ -0,0 +1,131 @@
+package com.securefinance.emilock.benchmarks;
+
+import com.securefinance.emilock.RecordLog;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RecordLogBenchmark - OfflineLockCache storage: record log vs JSON array rewrite
+ *
+ * One op = queue one pending report and acknowledge it, with `queued` reports already
+ * waiting - the steady state of ReportOutbox while the device is offline.
+ *
+ * - recordLog: RecordLog write-behind append + tombstone (how reports are stored now)
+ * - recordLogDurable: same with a durable append, as queueCommand does (one fsync per op)
+ * - jsonArray: what OfflineLockCache did before - parse the whole array, change it,
+ *   serialize it and write it out, for the add and again for the acknowledge. The write
+ *   goes to a plain file; SharedPreferences additionally wrapped it in an XML document.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecordLogBenchmark {
+
+    @Param({ "10", "1000", "100000" })
+    public int queued;
+
+    private File dir;
+    private RecordLog log;
+    private File arrayFile;
+    private String arrayJson;
+    private long seq;
+
+    static String report(String id, long i) {
+        return "{\"id\":\"" + id + "\",\"type\":\"security_event\",\"data\":{\"event\":\"safe_mode\","
+                + "\"imei\":\"356938035643809\",\"slot\":1},\"timestamp\":" + (1760659200000L + i) + "}";
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("recordlog-bench").toFile();
+        log = new RecordLog(new File(dir, "reports.log"));
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < queued; i++) {
+            String id = UUID.randomUUID().toString();
+            log.append(id, report(id, i), false);
+            array.put(new JSONObject(report(id, i)));
+        }
+        log.flush(true);
+        arrayFile = new File(dir, "prefs.json");
+        arrayJson = array.toString();
+        write(arrayFile, arrayJson);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        log.flush(true);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public int recordLog() throws IOException {
+        String id = "r" + seq++;
+        log.append(id, report(id, seq), false);
+        log.removeAll(Collections.singletonList(id));
+        return log.size();
+    }
+
+    @Benchmark
+    public int recordLogDurable() throws IOException {
+        String id = "c" + seq++;
+        log.append(id, report(id, seq), true);
+        log.removeAll(Collections.singletonList(id));
+        return log.size();
+    }
+
+    @Benchmark
+    public int jsonArray() throws IOException {
+        String id = "j" + seq++;
+
+        // addPendingReport
+        JSONArray reports = new JSONArray(arrayJson);
+        reports.put(new JSONObject(report(id, seq)));
+        String added = reports.toString();
+        write(arrayFile, added);
+
+        // acknowledgeReports
+        JSONArray current = new JSONArray(added);
+        JSONArray remaining = new JSONArray();
+        for (int i = 0; i < current.length(); i++) {
+            JSONObject r = current.getJSONObject(i);
+            if (!id.equals(r.optString("id"))) {
+                remaining.put(r);
+            }
+        }
+        arrayJson = remaining.toString();
+        write(arrayFile, arrayJson);
+        return remaining.length();
+    }
+
+    private static void write(File file, String content) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}